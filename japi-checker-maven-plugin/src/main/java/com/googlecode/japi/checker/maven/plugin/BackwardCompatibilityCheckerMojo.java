@@ -17,6 +17,7 @@ package com.googlecode.japi.checker.maven.plugin;
 
 
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.ArtifactUtils;
 import org.apache.maven.artifact.factory.ArtifactFactory;
 import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
 import org.apache.maven.artifact.repository.ArtifactRepository;
@@ -28,11 +29,20 @@ import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
 
+import com.googlecode.japi.checker.ApiSnapshot;
+import com.googlecode.japi.checker.ApiTree;
 import com.googlecode.japi.checker.BCChecker;
+import com.googlecode.japi.checker.ClassChecksum;
+import com.googlecode.japi.checker.MappedApiSnapshot;
 import com.googlecode.japi.checker.MuxReporter;
+import com.googlecode.japi.checker.PackedApiSnapshot;
 import com.googlecode.japi.checker.Reporter;
 import com.googlecode.japi.checker.Rule;
+import com.googlecode.japi.checker.Scope;
+import com.googlecode.japi.checker.SnapshotStore;
+import com.googlecode.japi.checker.sources.ClassBytesSources;
 
 import java.io.File;
 import java.io.IOException;
@@ -51,6 +61,10 @@ import java.util.List;
 public class BackwardCompatibilityCheckerMojo
     extends AbstractMojo
 {
+    private static final String API_TREE_EXTENSION = ".apitree";
+    private static final String API_TREE_TYPE = "apitree";
+    private static final String API_TREE_CLASSIFIER = "api";
+
     /**
      * Location of the file.
      * @parameter expression="${project.build.directory}"
@@ -71,6 +85,112 @@ public class BackwardCompatibilityCheckerMojo
      */
     private List<String> rules;
     
+    /**
+     * Number of threads used to parse the classes of the artifacts.
+     * @parameter expression="${japi-checker.threads}" default-value="1"
+     */
+    private int threads = 1;
+    
+    /**
+     * Skip the classes which are byte-identical in both artifacts.
+     * @parameter expression="${japi-checker.skipIdenticalClasses}" default-value="false"
+     */
+    private boolean skipIdenticalClasses;
+    
+    /**
+     * Skip the classes whose API is the same in both artifacts, i.e. which only
+     * differ in the code of their methods.
+     * @parameter expression="${japi-checker.skipUnchangedApiClasses}" default-value="false"
+     */
+    private boolean skipUnchangedApiClasses;
+    
+    /**
+     * When skipping the classes with an unchanged API, use the API tree published
+     * along with the reference artifact if any, as its 'api' classified artifact
+     * of type 'apitree', and attach the tree of the checked artifact to the project,
+     * so it is published too. A tree is only used if it records the CRC-32 of the
+     * reference artifact.
+     * @parameter expression="${japi-checker.apiTrees}" default-value="false"
+     */
+    private boolean apiTrees;
+    
+    /**
+     * Lowest visibility of the classes to check (PUBLIC, PROTECTED, NO_SCOPE or PRIVATE),
+     * classes below it are not parsed.
+     * @parameter expression="${japi-checker.minimumVisibility}" default-value="PRIVATE"
+     */
+    private String minimumVisibility = "PRIVATE";
+    
+    /**
+     * Also check the classes of the archives nested in the artifacts (e.g. WEB-INF/lib/*.jar).
+     * @parameter expression="${japi-checker.nestedArchives}" default-value="false"
+     */
+    private boolean nestedArchives;
+    
+    /**
+     * Number of parsed classes allowed to wait for checking when both artifacts
+     * are read concurrently, 0 to read them completely before checking.
+     * @parameter expression="${japi-checker.pipelineDepth}" default-value="0"
+     */
+    private int pipelineDepth;
+    
+    /**
+     * Parse only the API of the classes, skipping the code of their methods.
+     * The line numbers of the reported methods are resolved afterwards.
+     * @parameter expression="${japi-checker.apiOnly}" default-value="false"
+     */
+    private boolean apiOnly;
+    
+    /**
+     * Store the classes of the artifacts in packed tables, reducing the memory
+     * needed by very large artifacts.
+     * @parameter expression="${japi-checker.packedModel}" default-value="false"
+     */
+    private boolean packedModel;
+    
+    /**
+     * Number of threads running the rules on the classes, the reports keep
+     * the order of a sequential check.
+     * @parameter expression="${japi-checker.checkThreads}" default-value="1"
+     */
+    private int checkThreads = 1;
+    
+    /**
+     * Stop the check once this number of errors has been found, checking the
+     * removed and public classes first, 0 to run a full check.
+     * @parameter expression="${japi-checker.maxErrors}" default-value="0"
+     */
+    private int maxErrors;
+    
+    /**
+     * Binary snapshot of the reference API. When the file exists the check
+     * uses it instead of resolving and parsing the reference artifact,
+     * otherwise it is created from the reference artifact for the next builds.
+     * The snapshot records the coordinates of the reference, and it is created
+     * again when they change. For a SNAPSHOT reference the artifact is still
+     * resolved, and the snapshot is created again when its content changed.
+     * @parameter expression="${japi-checker.referenceSnapshot}"
+     */
+    private File referenceSnapshot;
+    
+    /**
+     * Store the reference snapshot in a layout which is memory-mapped and
+     * queried in place, keeping the reference classes off-heap. The check
+     * then uses the packed model, materializing the reference classes one at
+     * a time rather than all of them up front.
+     * @parameter expression="${japi-checker.mappedSnapshot}" default-value="false"
+     */
+    private boolean mappedSnapshot;
+    
+    /**
+     * Directory of a snapshot store keeping the API of the versions of the
+     * reference, as deltas between checkpoints. The reference version is
+     * loaded from it when stored, otherwise it is added once resolved.
+     * SNAPSHOT versions, whose content changes, are never stored.
+     * @parameter expression="${japi-checker.snapshotStore}"
+     */
+    private File snapshotStore;
+    
     /**
      * Reference version
      * @parameter
@@ -103,6 +223,15 @@ public class BackwardCompatibilityCheckerMojo
      */
     private ArtifactResolver resolver;
 
+    /**
+     * Used to attach the API tree to the project.
+     *
+     * @component
+     * @readonly
+     * @required
+     */
+    private MavenProjectHelper projectHelper;
+
     /**
      * ArtifactRepository of the localRepository. To obtain the directory of localRepository in unit tests use
      * System.setProperty( "localRepository").
@@ -129,18 +258,83 @@ public class BackwardCompatibilityCheckerMojo
         if (artifact == null) {
             throw new MojoExecutionException("Artifact is null.");
         }
-        if (!"jar".equals(artifact.getType())) {
-            throw new MojoExecutionException("The artifact is not of type jar.");
+        if (!"jar".equals(artifact.getType()) && !"war".equals(artifact.getType()) && !"ear".equals(artifact.getType())) {
+            throw new MojoExecutionException("The artifact is not of type jar, war or ear.");
         }
         
         if (artifact.getFile() != null && artifact.getFile().exists()) {
             
-            // Retrieving the reference artifact.
-            updateArtifact(reference);
-            Artifact referenceArtifact = reference.getArtifact();
-
+            String coordinates = reference.getGroupId() + ":" + reference.getArtifactId() + ":"
+                    + reference.getType() + ":" + reference.getVersion();
+            boolean snapshotVersion = ArtifactUtils.isSnapshot(reference.getVersion());
+            ApiSnapshot snapshot = null;
+            if (referenceSnapshot != null && referenceSnapshot.isFile()) {
+                try {
+                    snapshot = mappedSnapshot ? MappedApiSnapshot.open(referenceSnapshot) : PackedApiSnapshot.read(referenceSnapshot);
+                } catch (IOException e) {
+                    getLog().warn("Ignoring the API snapshot " + referenceSnapshot + ": " + e.getMessage());
+                }
+                if (snapshot != null && !isUpToDate(snapshot, coordinates, snapshotVersion)) {
+                    getLog().info("The API snapshot " + referenceSnapshot + " does not match " + coordinates + ", creating it again.");
+                    snapshot = null;
+                }
+            }
+            
+            SnapshotStore store = snapshotStore == null || snapshotVersion ? null : new SnapshotStore(snapshotStore);
+            if (snapshotStore != null && snapshotVersion) {
+                getLog().info("The SNAPSHOT version " + reference.getVersion() + " is not kept in the snapshot store.");
+            }
+            boolean stored = false;
+            if (snapshot == null && store != null) {
+                try {
+                    stored = store.contains(reference.getVersion());
+                    if (stored) {
+                        snapshot = store.load(reference.getVersion());
+                    }
+                } catch (IOException e) {
+                    throw new MojoExecutionException("Cannot read the snapshot store " + snapshotStore + ": " + e.getMessage(), e);
+                }
+            }
+            
             // Creating a new checker which compare the generated artifact against the provided reference.
-            BCChecker checker = new BCChecker(referenceArtifact.getFile(), artifact.getFile());
+            BCChecker checker = null;
+            String referenceName = null;
+            if (snapshot != null) {
+                checker = new BCChecker(snapshot, ClassBytesSources.forFile(artifact.getFile()));
+                referenceName = stored ? reference.getVersion() + " in " + snapshotStore : referenceSnapshot.toString();
+            } else {
+                // Retrieving the reference artifact.
+                updateArtifact(reference);
+                Artifact referenceArtifact = reference.getArtifact();
+                checker = new BCChecker(referenceArtifact.getFile(), artifact.getFile());
+                referenceName = referenceArtifact.toString();
+                if (referenceSnapshot != null || store != null) {
+                    // the reference is parsed once, into the snapshot the check then runs against.
+                    try {
+                        snapshot = createSnapshot(checker, coordinates, referenceArtifact.getFile());
+                    } catch (IOException e) {
+                        throw new MojoExecutionException(e.getMessage(), e);
+                    }
+                    checker = new BCChecker(snapshot, ClassBytesSources.forFile(artifact.getFile()));
+                } else if (skipUnchangedApiClasses && apiTrees) {
+                    checker.setReferenceApiTree(readApiTree(referenceArtifact));
+                }
+            }
+            checker.setThreads(threads);
+            checker.setSkipIdenticalClasses(skipIdenticalClasses);
+            checker.setSkipUnchangedApiClasses(skipUnchangedApiClasses);
+            checker.setNestedArchives(nestedArchives);
+            checker.setPipelineDepth(pipelineDepth);
+            checker.setApiOnly(apiOnly);
+            // a mapped snapshot is only kept off-heap when compared class by class.
+            checker.setPackedModel(packedModel || mappedSnapshot && referenceSnapshot != null);
+            checker.setCheckThreads(checkThreads);
+            checker.setMaxErrors(maxErrors);
+            try {
+                checker.setMinimumVisibility(Scope.valueOf(minimumVisibility.toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                throw new MojoExecutionException("Invalid minimumVisibility: " + minimumVisibility);
+            }
 
             // configuring the reporting redirection
             MuxReporter mux = new MuxReporter();
@@ -149,9 +343,28 @@ public class BackwardCompatibilityCheckerMojo
             mux.add(ec);
             
             try {
+                if (store != null && !stored) {
+                    getLog().info("Adding " + reference.getVersion() + " to the snapshot store " + snapshotStore);
+                    store.add(reference.getVersion(), snapshot);
+                }
                 // Running the check...
-                this.getLog().info("Checking backward compatibility of " + artifact.toString() + " against " + referenceArtifact.toString());
+                this.getLog().info("Checking backward compatibility of " + artifact.toString() + " against " + referenceName);
                 checker.checkBacwardCompatibility(mux, getRuleInstances());
+                if (skipIdenticalClasses) {
+                    getLog().info(checker.getIdenticalClassCount() + " identical classes skipped.");
+                }
+                if (skipUnchangedApiClasses) {
+                    getLog().info(checker.getUnchangedApiClassCount() + " classes with an unchanged API skipped.");
+                    if (apiTrees && checker.getNewApiTree() != null && outputDirectory != null) {
+                        File tree = new File(outputDirectory, artifact.getFile().getName() + API_TREE_EXTENSION);
+                        checker.getNewApiTree().setArtifactCrc(ClassChecksum.crc(artifact.getFile()));
+                        checker.getNewApiTree().write(tree);
+                        projectHelper.attachArtifact(project, API_TREE_TYPE, API_TREE_CLASSIFIER, tree);
+                    }
+                }
+                if (checker.isErrorLimitReached()) {
+                    getLog().warn("Check stopped after " + maxErrors + " errors, other issues may exist.");
+                }
                 if (ec.hasError()) {
                     getLog().error("You have " + ec.getCount() + " backward compatibility issues.");
                     throw new MojoFailureException("You have " + ec.getCount() + " backward compatibility issues.");
@@ -167,6 +380,73 @@ public class BackwardCompatibilityCheckerMojo
         
     }
 
+    /**
+     * Snapshots the reference read by the checker, writing it to the
+     * referenceSnapshot file if configured.
+     * @return the snapshot of the reference.
+     */
+    private ApiSnapshot createSnapshot(BCChecker checker, String coordinates, File referenceFile) throws IOException {
+        ApiSnapshot snapshot = checker.snapshotReference(coordinates, ClassChecksum.crc(referenceFile));
+        if (referenceSnapshot != null) {
+            getLog().info("Writing the API snapshot " + referenceSnapshot);
+            referenceSnapshot.getAbsoluteFile().getParentFile().mkdirs();
+            if (mappedSnapshot) {
+                MappedApiSnapshot.write(snapshot, referenceSnapshot);
+            } else {
+                snapshot.write(referenceSnapshot);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Resolves the API tree published along with the reference artifact.
+     * @return the tree, or null if there is none or it does not describe the reference artifact.
+     */
+    private ApiTree readApiTree(Artifact referenceArtifact) throws MojoExecutionException {
+        Artifact treeArtifact = getFactory().createArtifactWithClassifier(referenceArtifact.getGroupId(),
+                referenceArtifact.getArtifactId(), referenceArtifact.getVersion(), API_TREE_TYPE, API_TREE_CLASSIFIER);
+        try {
+            getResolver().resolve(treeArtifact, remoteRepos, localRepository);
+        } catch (ArtifactResolutionException e) {
+            getLog().debug("No API tree for " + referenceArtifact + ": " + e.getMessage());
+            return null;
+        } catch (ArtifactNotFoundException e) {
+            getLog().debug("No API tree for " + referenceArtifact + ": " + e.getMessage());
+            return null;
+        }
+        try {
+            ApiTree tree = ApiTree.read(treeArtifact.getFile());
+            if (tree.getArtifactCrc() != ClassChecksum.crc(referenceArtifact.getFile())) {
+                getLog().warn("Ignoring the API tree " + treeArtifact.getFile() + ", it does not match " + referenceArtifact.getFile());
+                return null;
+            }
+            return tree;
+        } catch (IOException e) {
+            getLog().warn("Ignoring the API tree " + treeArtifact.getFile() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the snapshot has been built from the reference, checking
+     *         the content of the reference artifact for a SNAPSHOT version.
+     */
+    private boolean isUpToDate(ApiSnapshot snapshot, String coordinates, boolean snapshotVersion) throws MojoExecutionException {
+        if (!coordinates.equals(snapshot.getOrigin())) {
+            return false;
+        }
+        if (!snapshotVersion) {
+            return true;
+        }
+        updateArtifact(reference);
+        try {
+            return snapshot.getOriginCrc() == ClassChecksum.crc(reference.getArtifact().getFile());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Cannot read " + reference.getArtifact().getFile() + ": " + e.getMessage(), e);
+        }
+    }
+
     private List<Rule> getRuleInstances() throws MojoExecutionException {
         List<Rule> rules = new ArrayList<Rule>();
         for (String classname : this.rules) {
@@ -16,17 +16,28 @@
 package com.googlecode.japi.checker.maven.plugin;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
 import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.artifact.repository.DefaultArtifactRepository;
 import org.apache.maven.artifact.repository.layout.ArtifactRepositoryLayout;
+import org.apache.maven.artifact.versioning.VersionRange;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.testing.AbstractMojoTestCase;
 import org.apache.maven.plugin.testing.stubs.ArtifactStub;
 import org.apache.maven.plugin.testing.stubs.MavenProjectStub;
 
+import com.googlecode.japi.checker.ApiTree;
+import com.googlecode.japi.checker.BCChecker;
+import com.googlecode.japi.checker.ClassChecksum;
+import com.googlecode.japi.checker.PackedApiSnapshot;
+
 public class TestBackwardCompatibilityCheckerMojo extends AbstractMojoTestCase {
     private BackwardCompatibilityCheckerMojo mojo;
     
@@ -46,6 +57,7 @@ public class TestBackwardCompatibilityCheckerMojo extends AbstractMojoTestCase {
 
         setVariableValueToObject(mojo, "project", project);
         setVariableValueToObject(mojo, "localRepository", localRepository);
+        setVariableValueToObject(mojo, "remoteRepos", new ArrayList<ArtifactRepository>());
     }
     
     public void testValidationWithSameJar() throws MojoExecutionException, IllegalAccessException, MojoFailureException {
@@ -81,4 +93,62 @@ public class TestBackwardCompatibilityCheckerMojo extends AbstractMojoTestCase {
         }
 
     }
+
+    public void testStaleReferenceSnapshotIsCreatedAgain() throws MojoExecutionException, IllegalAccessException, IOException {
+        File newJar = new File("src/test/repository/com/googlecode/japi-checker/reference-test-jar/0.1.1-SNAPSHOT/reference-test-jar-0.1.1-SNAPSHOT.jar");
+        // a snapshot of another artifact, which would let the check pass.
+        File snapshotFile = new File(getBasedir(), "target/unit/reference.japs");
+        snapshotFile.getParentFile().mkdirs();
+        new BCChecker(newJar, newJar).snapshotReference("com.googlecode.japi-checker:other:jar:0.1.0", -1).write(snapshotFile);
+        setVariableValueToObject(mojo, "referenceSnapshot", snapshotFile);
+        
+        ArtifactStub artifact = new ArtifactStub();
+        artifact.setGroupId(mojo.getProject().getGroupId());
+        artifact.setArtifactId(mojo.getProject().getArtifactId());
+        artifact.setVersion(mojo.getProject().getVersion());
+        artifact.setType("jar");
+        artifact.setScope(Artifact.SCOPE_RUNTIME);
+        artifact.setFile(newJar);
+        mojo.getProject().setArtifact(artifact);
+        setVariableValueToObject(mojo, "artifact", artifact);
+
+        try {
+            mojo.execute();
+            fail("The validation must fail.");
+        } catch (MojoFailureException e) {
+            // should be there
+        }
+        assertEquals("com.googlecode.japi-checker:reference-test-jar:jar:0.1.0", PackedApiSnapshot.read(snapshotFile).getOrigin());
+    }
+
+    public void testApiTreeIsAttached() throws MojoExecutionException, IllegalAccessException, MojoFailureException, IOException {
+        File jar = new File("src/test/repository/com/googlecode/japi-checker/reference-test-jar/0.1.0/reference-test-jar-0.1.0.jar");
+        // attached artifacts need the version range of the project artifact.
+        final Artifact artifact = new DefaultArtifact("com.googlecode.japi-checker", "reference-test-jar",
+                VersionRange.createFromVersion("0.1.1-SNAPSHOT"), Artifact.SCOPE_RUNTIME, "jar", null, new DefaultArtifactHandler("jar"));
+        artifact.setFile(jar);
+        final List<Artifact> attached = new ArrayList<Artifact>();
+        MavenProjectStub project = new MavenProjectStub() {
+            @Override
+            public Artifact getArtifact() {
+                return artifact;
+            }
+
+            @Override
+            public void addAttachedArtifact(Artifact artifact) {
+                attached.add(artifact);
+            }
+        };
+        setVariableValueToObject(mojo, "project", project);
+        setVariableValueToObject(mojo, "artifact", artifact);
+        setVariableValueToObject(mojo, "outputDirectory", new File(getBasedir(), "target/unit"));
+        setVariableValueToObject(mojo, "skipUnchangedApiClasses", Boolean.TRUE);
+        setVariableValueToObject(mojo, "apiTrees", Boolean.TRUE);
+        mojo.execute();
+        
+        assertEquals(1, attached.size());
+        assertEquals("api", attached.get(0).getClassifier());
+        assertEquals("apitree", attached.get(0).getType());
+        assertEquals(ClassChecksum.crc(jar), ApiTree.read(attached.get(0).getFile()).getArtifactCrc());
+    }
 }
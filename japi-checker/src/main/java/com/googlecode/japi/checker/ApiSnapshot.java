@@ -0,0 +1,113 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.googlecode.japi.checker.model.ClassData;
+import com.googlecode.japi.checker.utils.SymbolTable;
+
+/**
+ * The extracted model of an artifact, usable as the reference of a check
+ * without parsing the artifact again. Classes are addressed by index, and
+ * for each of them the snapshot also keeps the path, size, CRC-32 and API
+ * fingerprint of its class file, so identical and unchanged API classes can
+ * still be skipped.
+ *
+ * @see PackedApiSnapshot
+ * @see MappedApiSnapshot
+ */
+public interface ApiSnapshot {
+
+    /**
+     * @return the symbol table of the materialized classes. It is not modified
+     *         by a check, whose new classes use a table extending it.
+     */
+    SymbolTable getSymbols();
+
+    /**
+     * @return a description of the artifact the snapshot has been built
+     *         from, e.g. its coordinates, or null if unknown.
+     */
+    String getOrigin();
+
+    /**
+     * @return the CRC-32 of the artifact the snapshot has been built from, or -1 if unknown.
+     */
+    long getOriginCrc();
+
+    /**
+     * @return the number of classes.
+     */
+    int size();
+
+    /**
+     * @param index the index of a class.
+     * @return the internal name of the class.
+     */
+    String getName(int index);
+
+    /**
+     * @param name the internal name of a class.
+     * @return the index of the last class stored under this name, or -1.
+     */
+    int indexOf(String name);
+
+    /**
+     * @param index the index of a class.
+     * @return the access flags of the class, without materializing it.
+     */
+    int getAccess(int index);
+
+    /**
+     * Materializes a class and its members, with every facet.
+     * @param index the index of a class.
+     * @return a new view of the class.
+     */
+    ClassData get(int index);
+
+    /**
+     * @param index the index of a class.
+     * @return the path the class has been read from, e.g. 'com/foo/Bar.class'.
+     */
+    String getPath(int index);
+
+    /**
+     * @param index the index of a class.
+     * @return the size and CRC-32 of the class file.
+     */
+    ClassChecksum getChecksum(int index);
+
+    /**
+     * @param index the index of a class.
+     * @return the API fingerprint of the class file.
+     */
+    long getFingerprint(int index);
+
+    /**
+     * @param filter the classes to include.
+     * @return the API tree of the included classes.
+     */
+    ApiTree getApiTree(ClassBytesSource.Filter filter);
+
+    /**
+     * Writes the snapshot in the format of its implementation.
+     * @param file the file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    void write(File file) throws IOException;
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.googlecode.japi.checker.utils.ClassFingerprint;
+
+/**
+ * A Merkle tree of the API of an artifact: the {@link ClassFingerprint} of
+ * each class, rolled up into a hash per package, rolled up into a root hash.
+ * Two artifacts with the same root hash have the same API, and comparing
+ * two trees only descends into the packages whose hashes differ.
+ * Trees can be published along with an artifact, so the artifact does not
+ * have to be read again when it becomes the reference. They then record the
+ * CRC-32 of the artifact, to be checked against the artifact before use.
+ * Classes which cannot be fingerprinted are recorded as always changed: their
+ * packages, and the whole tree, are then never considered unchanged.
+ */
+public class ApiTree {
+    private static final int MAGIC = 0x4A415054; // JAPT
+    private static final int FORMAT_VERSION = 3;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // class fingerprints by path, by package.
+    private final SortedMap<String, SortedMap<String, Long>> packages = new TreeMap<String, SortedMap<String, Long>>();
+    private final Map<String, Long> packageHashes = new HashMap<String, Long>();
+    // classes which could not be fingerprinted, and their packages.
+    private final SortedSet<String> changedClasses = new TreeSet<String>();
+    private final Set<String> changedPackages = new HashSet<String>();
+    private final long rootHash;
+    private final int classCount;
+    private long artifactCrc = -1;
+
+    /**
+     * @param fingerprints the API fingerprints of the classes, by path (e.g. 'com/foo/Bar.class').
+     */
+    public ApiTree(Map<String, Long> fingerprints) {
+        this(fingerprints, Collections.<String>emptySet());
+    }
+
+    /**
+     * @param fingerprints the API fingerprints of the classes, by path (e.g. 'com/foo/Bar.class').
+     * @param changedClasses the paths of the classes which could not be
+     *        fingerprinted, always considered changed.
+     */
+    public ApiTree(Map<String, Long> fingerprints, Set<String> changedClasses) {
+        for (String path : changedClasses) {
+            this.changedClasses.add(path);
+            changedPackages.add(getPackage(path));
+        }
+        for (Map.Entry<String, Long> entry : fingerprints.entrySet()) {
+            String name = getPackage(entry.getKey());
+            SortedMap<String, Long> classes = packages.get(name);
+            if (classes == null) {
+                classes = new TreeMap<String, Long>();
+                packages.put(name, classes);
+            }
+            classes.put(entry.getKey(), entry.getValue());
+        }
+        long root = FNV_OFFSET;
+        for (Map.Entry<String, SortedMap<String, Long>> entry : packages.entrySet()) {
+            long hash = FNV_OFFSET;
+            for (Map.Entry<String, Long> clazz : entry.getValue().entrySet()) {
+                hash = hash(hash, clazz.getKey(), clazz.getValue());
+            }
+            packageHashes.put(entry.getKey(), hash);
+            root = hash(root, entry.getKey(), hash);
+        }
+        this.rootHash = root;
+        this.classCount = fingerprints.size();
+    }
+
+    /**
+     * Builds the tree of the classes of a source. Classes which cannot be
+     * fingerprinted are recorded as always changed, so they are still parsed
+     * and reported by the check.
+     * @param source the source of the classes.
+     * @param filter the classes to include.
+     * @return the tree.
+     * @throws IOException if the source cannot be read.
+     */
+    public static ApiTree build(ClassBytesSource source, ClassBytesSource.Filter filter) throws IOException {
+        final Map<String, Long> fingerprints = new HashMap<String, Long>();
+        final Set<String> changedClasses = new HashSet<String>();
+        source.read(filter, new ClassBytesSource.Handler() {
+            public void handle(String path, ByteBuffer content) {
+                try {
+                    if (content.hasArray()) {
+                        fingerprints.put(path, ClassFingerprint.compute(content.array(), content.arrayOffset() + content.position(), content.remaining()));
+                    } else {
+                        byte[] bytes = new byte[content.remaining()];
+                        content.duplicate().get(bytes);
+                        fingerprints.put(path, ClassFingerprint.compute(bytes, 0, bytes.length));
+                    }
+                } catch (IllegalArgumentException e) {
+                    // left to the parser, which reports it.
+                    changedClasses.add(path);
+                }
+            }
+        });
+        return new ApiTree(fingerprints, changedClasses);
+    }
+
+    /**
+     * @return the hash of the whole API.
+     */
+    public long getRootHash() {
+        return rootHash;
+    }
+
+    /**
+     * @param artifactCrc the CRC-32 of the artifact the tree describes, or -1 if unknown.
+     */
+    public void setArtifactCrc(long artifactCrc) {
+        this.artifactCrc = artifactCrc;
+    }
+
+    /**
+     * @return the CRC-32 of the artifact the tree describes, or -1 if unknown.
+     */
+    public long getArtifactCrc() {
+        return artifactCrc;
+    }
+
+    /**
+     * @return the packages, e.g. 'com/foo', in order.
+     */
+    public Set<String> getPackages() {
+        return Collections.unmodifiableSet(packages.keySet());
+    }
+
+    /**
+     * @param name the package, e.g. 'com/foo'.
+     * @return the hash of the package, or null if the tree has no such package.
+     */
+    public Long getPackageHash(String name) {
+        return packageHashes.get(name);
+    }
+
+    /**
+     * @param name the package, e.g. 'com/foo'.
+     * @return the fingerprints of its classes by path, empty if the tree has no such package.
+     */
+    public Map<String, Long> getFingerprints(String name) {
+        SortedMap<String, Long> classes = packages.get(name);
+        return classes == null ? Collections.<String, Long>emptyMap() : Collections.unmodifiableMap(classes);
+    }
+
+    /**
+     * @return the classes which could not be fingerprinted, always considered changed.
+     */
+    public Set<String> getChangedClasses() {
+        return Collections.unmodifiableSet(changedClasses);
+    }
+
+    /**
+     * @return true if every class has been fingerprinted, so the root hash
+     *         alone tells whether two trees have the same API.
+     */
+    public boolean isComplete() {
+        return changedClasses.isEmpty();
+    }
+
+    /**
+     * @return the number of classes.
+     */
+    public int getClassCount() {
+        return classCount;
+    }
+
+    /**
+     * @param newTree the tree of the new version.
+     * @return the packages having the same hash in both trees.
+     */
+    public Set<String> findUnchangedPackages(ApiTree newTree) {
+        Set<String> result = new HashSet<String>();
+        if (rootHash == newTree.rootHash && isComplete() && newTree.isComplete()) {
+            result.addAll(packages.keySet());
+            return result;
+        }
+        for (Map.Entry<String, Long> entry : packageHashes.entrySet()) {
+            if (entry.getValue().equals(newTree.packageHashes.get(entry.getKey())) && isComplete(newTree, entry.getKey())) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Only descends into the packages whose hashes differ.
+     * @param newTree the tree of the new version.
+     * @return the classes of the changed packages having the same fingerprint in both trees.
+     */
+    public Set<String> findUnchangedClasses(ApiTree newTree) {
+        Set<String> result = new HashSet<String>();
+        if (rootHash == newTree.rootHash && isComplete() && newTree.isComplete()) {
+            return result;
+        }
+        for (Map.Entry<String, SortedMap<String, Long>> entry : packages.entrySet()) {
+            SortedMap<String, Long> newClasses = newTree.packages.get(entry.getKey());
+            if (newClasses == null || (packageHashes.get(entry.getKey()).equals(newTree.packageHashes.get(entry.getKey()))
+                    && isComplete(newTree, entry.getKey()))) {
+                continue;
+            }
+            for (Map.Entry<String, Long> clazz : entry.getValue().entrySet()) {
+                if (clazz.getValue().equals(newClasses.get(clazz.getKey()))) {
+                    result.add(clazz.getKey());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if neither tree holds a changed class in the package.
+     */
+    private boolean isComplete(ApiTree newTree, String name) {
+        return !changedPackages.contains(name) && !newTree.changedPackages.contains(name);
+    }
+
+    /**
+     * @param path the path of a class, e.g. 'com/foo/Bar.class'.
+     * @return its package, e.g. 'com/foo', the empty string for the default package.
+     */
+    public static String getPackage(String path) {
+        int index = path.lastIndexOf('/');
+        return index < 0 ? "" : path.substring(0, index);
+    }
+
+    /**
+     * Writes the tree, the hashes being computed again when read.
+     * @param file the file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(artifactCrc);
+            out.writeLong(rootHash);
+            out.writeInt(classCount);
+            for (SortedMap<String, Long> classes : packages.values()) {
+                for (Map.Entry<String, Long> clazz : classes.entrySet()) {
+                    out.writeUTF(clazz.getKey());
+                    out.writeLong(clazz.getValue());
+                }
+            }
+            out.writeInt(changedClasses.size());
+            for (String path : changedClasses) {
+                out.writeUTF(path);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @param file a file written by {@link #write(File)}.
+     * @return the tree.
+     * @throws IOException if the file cannot be read, or is not a valid tree.
+     */
+    public static ApiTree read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException(file + " is not an API tree.");
+            }
+            long artifactCrc = in.readLong();
+            long rootHash = in.readLong();
+            int count = in.readInt();
+            Map<String, Long> fingerprints = new HashMap<String, Long>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                fingerprints.put(path, in.readLong());
+            }
+            Set<String> changedClasses = new HashSet<String>();
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                changedClasses.add(in.readUTF());
+            }
+            ApiTree tree = new ApiTree(fingerprints, changedClasses);
+            if (tree.rootHash != rootHash) {
+                throw new IOException(file + " is corrupted.");
+            }
+            tree.setArtifactCrc(artifactCrc);
+            return tree;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long hash(long hash, String name, long value) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        for (int i = 0; i < 64; i += 8) {
+            hash = (hash ^ ((value >>> i) & 0xFF)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
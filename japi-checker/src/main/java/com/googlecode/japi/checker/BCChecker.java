@@ -15,41 +15,118 @@
  */
 package com.googlecode.japi.checker;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
 
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
 
-import com.googlecode.japi.checker.Reporter.Level;
 import com.googlecode.japi.checker.Reporter.Report;
+import com.googlecode.japi.checker.diff.DiffEngine;
+import com.googlecode.japi.checker.diff.DiffListener;
+import com.googlecode.japi.checker.diff.RuleDiffListener;
 import com.googlecode.japi.checker.model.ClassData;
+import com.googlecode.japi.checker.model.JavaItem;
+import com.googlecode.japi.checker.model.MethodData;
+import com.googlecode.japi.checker.model.PackedModel;
+import com.googlecode.japi.checker.sources.ClassBytesSources;
 import com.googlecode.japi.checker.utils.AntPatternMatcher;
+import com.googlecode.japi.checker.utils.ClassHeaderReader;
+import com.googlecode.japi.checker.utils.SymbolTable;
 
 public class BCChecker {
-    private File reference;
-    private File newArtifact;
+    private static final Logger logger = Logger.getLogger(BCChecker.class.getName());
+    private static final DiffEngine DIFF_ENGINE = new DiffEngine();
+    private static final Future<ClassData> END_OF_SOURCE = new FutureTask<ClassData>(new Runnable() {
+        public void run() {
+        }
+    }, null);
+    private ClassBytesSource reference;
+    private ApiSnapshot referenceSnapshot;
+    private ClassBytesSource newArtifact;
     private List<AntPatternMatcher> includes = new ArrayList<AntPatternMatcher>();
     private List<AntPatternMatcher> excludes = new ArrayList<AntPatternMatcher>();
+    private int threads = 1;
+    private int checkThreads = 1;
+    private int maxErrors;
+    // set once maxErrors errors have been reported, checked by every loop of the check.
+    private volatile boolean cancelled;
+    private boolean skipIdenticalClasses;
+    private Scope minimumVisibility = Scope.PRIVATE;
+    private boolean nestedArchives;
+    private int pipelineDepth;
+    private boolean apiOnly;
+    private boolean packedModel;
+    private ModelCache modelCache;
+    private Set<Facet> facets = EnumSet.allOf(Facet.class);
+    private SymbolTable symbols = new SymbolTable();
+    private Set<String> identicalClasses = Collections.emptySet();
+    private boolean skipUnchangedApiClasses;
+    private Set<String> unchangedApiClasses = Collections.emptySet();
+    private Set<String> unchangedApiPackages = Collections.emptySet();
+    private int unchangedApiClassCount;
+    private ApiTree referenceApiTree;
+    private ApiTree newApiTree;
     
+    /**
+     * @param reference the reference artifact: a directory, a jmod or an archive.
+     * @param newArtifact the new artifact: a directory, a jmod or an archive.
+     */
     public BCChecker(File reference, File newArtifact) {
-        if (!reference.isDirectory() && !reference.getName().toLowerCase().endsWith(".jar")) {
-            throw new IllegalArgumentException("must be a jar file");
-        }
-        if (!reference.isDirectory() && !newArtifact.getName().toLowerCase().endsWith(".jar")) {
-            throw new IllegalArgumentException("must be a jar file");
+        this(ClassBytesSources.forFile(reference), ClassBytesSources.forFile(newArtifact));
+    }
+
+    /**
+     * @param reference the source of the reference classes.
+     * @param newArtifact the source of the new classes.
+     */
+    public BCChecker(ClassBytesSource reference, ClassBytesSource newArtifact) {
+        if (reference == null || newArtifact == null) {
+            throw new IllegalArgumentException("sources must not be null");
         }
         this.reference = reference;
         this.newArtifact = newArtifact;
     }
+
+    /**
+     * Checks classes against a snapshot of the reference, which is then
+     * neither read nor parsed. The pipelined mode does not apply, as the
+     * reference classes are already available. Unless the packed model is
+     * enabled, all the classes of the snapshot are materialized up front, so
+     * a memory-mapped snapshot should be checked with the packed model.
+     * @param reference the snapshot of the reference classes.
+     * @param newArtifact the source of the new classes.
+     */
+    public BCChecker(ApiSnapshot reference, ClassBytesSource newArtifact) {
+        if (reference == null || newArtifact == null) {
+            throw new IllegalArgumentException("sources must not be null");
+        }
+        this.referenceSnapshot = reference;
+        this.newArtifact = newArtifact;
+    }
  
     public void addInclude(String include) {
         includes.add(new AntPatternMatcher(include));
@@ -59,83 +136,896 @@ public class BCChecker {
         excludes.add(new AntPatternMatcher(exclude));
     }
     
+    /**
+     * Sets the number of threads used to parse the classes of a jar.
+     * The default, 1, reads the jar sequentially. In pipelined mode,
+     * each artifact is parsed by its own reader thread instead.
+     * @param threads the number of parsing threads, at least 1.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * @return the number of threads used to parse the classes of a jar.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the number of threads running the rules on the class pairs.
+     * The reports of each pair are buffered, and emitted in the order of
+     * a sequential check: by class name, then by member.
+     * Only applies to the default mode, neither pipelined nor packed.
+     * @param checkThreads the number of checking threads, at least 1.
+     */
+    public void setCheckThreads(int checkThreads) {
+        if (checkThreads < 1) {
+            throw new IllegalArgumentException("checkThreads must be at least 1");
+        }
+        this.checkThreads = checkThreads;
+    }
+
+    /**
+     * @return the number of threads running the rules on the class pairs.
+     */
+    public int getCheckThreads() {
+        return checkThreads;
+    }
+
+    /**
+     * Sets the number of errors after which the check stops, parsing and
+     * checking workers included. The removed and public classes are then
+     * checked first, so breaks are found early, and only the first errors
+     * are reported.
+     * @param maxErrors the number of errors to report, 0 to run a full check.
+     */
+    public void setMaxErrors(int maxErrors) {
+        if (maxErrors < 0) {
+            throw new IllegalArgumentException("maxErrors must not be negative");
+        }
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * @return the number of errors after which the check stops, 0 for a full check.
+     */
+    public int getMaxErrors() {
+        return maxErrors;
+    }
+
+    /**
+     * @return true if the last check stopped on reaching the maximum number
+     *         of errors, its result being partial.
+     */
+    public boolean isErrorLimitReached() {
+        return cancelled;
+    }
+    
+    /**
+     * When enabled, archives found inside the checked archives (e.g. BOOT-INF/lib/*.jar
+     * or WEB-INF/lib/*.jar) are read in place, without extracting them. Their
+     * classes are addressed by include and exclude patterns as 'nested.jar!/path/Class.class'.
+     * @param nestedArchives true to read nested archives.
+     */
+    public void setNestedArchives(boolean nestedArchives) {
+        this.nestedArchives = nestedArchives;
+    }
+
+    public boolean isNestedArchives() {
+        return nestedArchives;
+    }
+
+    /**
+     * When enabled, only the API of the classes is parsed, the code of the
+     * methods being skipped. The reports are then held back until the end of
+     * the check, the line numbers of the methods they refer to being resolved
+     * by re-reading only the classes declaring those methods.
+     * @param apiOnly true to skip the code of the methods.
+     */
+    public void setApiOnly(boolean apiOnly) {
+        this.apiOnly = apiOnly;
+    }
+
+    public boolean isApiOnly() {
+        return apiOnly;
+    }
+
+    /**
+     * Shares the classes of the checks using the same cache, e.g. when
+     * checking a matrix of versions, so a class whose API is unchanged between
+     * versions is a single instance. The classes are then parsed without their
+     * line numbers, resolved afterwards as in the API only mode.
+     * The packed and pipelined modes do not keep classes, and the classes of
+     * a reference snapshot have their own symbols, so they are not shared.
+     * @param modelCache the cache, or null not to share the classes.
+     */
+    public void setModelCache(ModelCache modelCache) {
+        this.modelCache = modelCache;
+    }
+
+    public ModelCache getModelCache() {
+        return modelCache;
+    }
+
+    /**
+     * When enabled, the classes of each artifact are stored in a {@link PackedModel}
+     * as they are parsed, and only materialized as objects while being checked.
+     * This reduces the memory needed by very large artifacts.
+     * @param packedModel true to store the classes in a packed model.
+     */
+    public void setPackedModel(boolean packedModel) {
+        this.packedModel = packedModel;
+    }
+
+    public boolean isPackedModel() {
+        return packedModel;
+    }
+
+    /**
+     * Enables the pipelined mode: both artifacts are read concurrently, and
+     * each class is checked as soon as both of its versions are parsed, then
+     * released. The memory used is bounded by the depth, plus the classes
+     * still waiting for their counterpart, which stays low when both artifacts
+     * list their classes in a similar order. The default, 0, reads both
+     * artifacts completely before checking them.
+     * @param pipelineDepth the number of parsed classes allowed to wait for checking, 0 to disable.
+     */
+    public void setPipelineDepth(int pipelineDepth) {
+        if (pipelineDepth < 0) {
+            throw new IllegalArgumentException("pipelineDepth must not be negative");
+        }
+        this.pipelineDepth = pipelineDepth;
+    }
+
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    /**
+     * Sets the lowest class visibility worth parsing. Reference classes below
+     * it, and synthetic ones unless the minimum is {@link Scope#PRIVATE}, are
+     * dropped after reading their header, before any full parsing. The new
+     * classes are all parsed, so a narrowed visibility is still reported.
+     * The default, {@link Scope#PRIVATE}, parses every class.
+     * @param minimumVisibility the lowest visibility to parse.
+     */
+    public void setMinimumVisibility(Scope minimumVisibility) {
+        if (minimumVisibility == null) {
+            throw new IllegalArgumentException("minimumVisibility must not be null");
+        }
+        this.minimumVisibility = minimumVisibility;
+    }
+
+    public Scope getMinimumVisibility() {
+        return minimumVisibility;
+    }
+
+    /**
+     * When enabled, classes having the same size and CRC-32 in both artifacts
+     * are neither parsed nor checked. Jar entries are compared using their
+     * central directory information, other entries by hashing their content.
+     * @param skipIdenticalClasses true to skip byte-identical classes.
+     */
+    public void setSkipIdenticalClasses(boolean skipIdenticalClasses) {
+        this.skipIdenticalClasses = skipIdenticalClasses;
+    }
+
+    public boolean isSkipIdenticalClasses() {
+        return skipIdenticalClasses;
+    }
+
+    /**
+     * @return the number of byte-identical classes skipped by the last check.
+     */
+    public int getIdenticalClassCount() {
+        return identicalClasses.size();
+    }
+
+    /**
+     * When enabled, classes whose API fingerprint is the same in both artifacts,
+     * i.e. which only differ in their method bodies, are neither parsed nor
+     * checked. The fingerprints are compared through the {@link ApiTree} of
+     * each artifact, read again to build it unless it has been set, so only
+     * the packages whose hashes differ are compared class by class, and
+     * nothing is checked if both trees have the same root hash.
+     * @param skipUnchangedApiClasses true to skip the classes with an unchanged API.
+     * @see com.googlecode.japi.checker.utils.ClassFingerprint
+     */
+    public void setSkipUnchangedApiClasses(boolean skipUnchangedApiClasses) {
+        this.skipUnchangedApiClasses = skipUnchangedApiClasses;
+    }
+
+    public boolean isSkipUnchangedApiClasses() {
+        return skipUnchangedApiClasses;
+    }
+
+    /**
+     * @return the number of classes with an unchanged API skipped by the last check.
+     */
+    public int getUnchangedApiClassCount() {
+        return unchangedApiClassCount;
+    }
+
+    /**
+     * Sets the API tree of the reference artifact, e.g. the one stored with
+     * it, so the reference is not read to build it.
+     * @param referenceApiTree the tree, null to build it from the reference.
+     */
+    public void setReferenceApiTree(ApiTree referenceApiTree) {
+        this.referenceApiTree = referenceApiTree;
+    }
+
+    /**
+     * @return the API tree of the reference artifact, built by the first
+     *         check skipping unchanged API classes if not set.
+     */
+    public ApiTree getReferenceApiTree() {
+        return referenceApiTree;
+    }
+
+    /**
+     * @param newApiTree the API tree of the new artifact, null to build it from the artifact.
+     */
+    public void setNewApiTree(ApiTree newApiTree) {
+        this.newApiTree = newApiTree;
+    }
+
+    /**
+     * @return the API tree of the new artifact, built by the first check
+     *         skipping unchanged API classes if not set, e.g. to store it
+     *         with the artifact.
+     */
+    public ApiTree getNewApiTree() {
+        return newApiTree;
+    }
+
+    /**
+     * Builds a snapshot of the reference classes selected by the include and
+     * exclude patterns, so later checks can use it instead of the reference.
+     * @return the snapshot of the reference.
+     * @throws IOException if the reference can't be read.
+     */
+    public ApiSnapshot snapshotReference() throws IOException {
+        return snapshotReference(null, -1);
+    }
+
+    /**
+     * Same as {@link #snapshotReference()}, recording the artifact the reference
+     * has been read from in the snapshot, unless the reference already is a snapshot.
+     * @param origin a description of the reference artifact, e.g. its coordinates.
+     * @param originCrc the CRC-32 of the reference artifact, or -1 if unknown.
+     * @return the snapshot of the reference.
+     * @throws IOException if the reference can't be read.
+     */
+    public ApiSnapshot snapshotReference(String origin, long originCrc) throws IOException {
+        if (referenceSnapshot != null) {
+            return referenceSnapshot;
+        }
+        PackedApiSnapshot snapshot = PackedApiSnapshot.build(reference, new SourceFilter(false));
+        snapshot.setOrigin(origin, originCrc);
+        return snapshot;
+    }
+    
     public void checkBacwardCompatibility(Reporter reporter, List<Rule> rules) throws IOException {
         if (rules == null) {
             rules = Collections.emptyList();
         }
-        ClassDumper referenceDumper = new ClassDumper();
-        ClassDumper newDumper = new ClassDumper();
-
-        List<ClassData> referenceData = readData(reference, referenceDumper);
-        List<ClassData> newData = readData(newArtifact, newDumper);
-        for (ClassData clazz : referenceData) {
-            boolean found = false;
-            for (ClassData newClazz : newData) {
-                if (clazz.isSame(newClazz)) {
-                    for (Rule rule : rules) {
-                        rule.checkBackwardCompatibility(reporter, clazz, newClazz);
+        cancelled = false;
+        unchangedApiClasses = Collections.emptySet();
+        unchangedApiPackages = Collections.emptySet();
+        unchangedApiClassCount = 0;
+        if (skipIdenticalClasses) {
+            identicalClasses = findIdenticalClasses();
+        } else {
+            identicalClasses = Collections.emptySet();
+        }
+        if (skipUnchangedApiClasses) {
+            findUnchangedApi();
+            // classes which could not be fingerprinted must still be parsed, so they are reported.
+            if (referenceApiTree.getRootHash() == newApiTree.getRootHash()
+                    && referenceApiTree.isComplete() && newApiTree.isComplete()) {
+                logger.info("Both artifacts have the same API.");
+                return;
+            }
+        }
+        facets = Facet.requiredBy(rules);
+        // both models share their symbols, so they are compared by id.
+        if (referenceSnapshot != null) {
+            // the snapshot may be shared with other checks, the new symbols are kept apart.
+            symbols = new SymbolTable(referenceSnapshot.getSymbols());
+        } else {
+            symbols = modelCache != null ? modelCache.getSymbols() : new SymbolTable();
+        }
+        if (!apiOnly && !sharesClasses()) {
+            // the reports need the line numbers, unless they are resolved afterwards.
+            facets.add(Facet.LINE_NUMBERS);
+        }
+        if (apiOnly || sharesClasses()) {
+            final List<Report> reports = new ArrayList<Report>();
+            compare(new Reporter() {
+                public void report(Report report) {
+                    reports.add(report);
+                }
+            }, rules);
+            for (Report report : resolveLineNumbers(reports)) {
+                reporter.report(report);
+            }
+        } else {
+            compare(reporter, rules);
+        }
+    }
+
+    private void compare(Reporter reporter, List<Rule> rules) throws IOException {
+        if (maxErrors > 0) {
+            reporter = new FailFastReporter(reporter);
+        }
+        if (pipelineDepth > 0 && referenceSnapshot == null) {
+            checkPipelined(reporter, rules);
+            return;
+        } else if (packedModel) {
+            comparePacked(reporter, rules);
+            return;
+        }
+        ClassDumper referenceDumper = newDumper();
+        ClassDumper newDumper = newDumper();
+
+        Map<String, ClassData> referenceData = referenceSnapshot != null ? readSnapshot() : readData(reference, referenceDumper, true);
+        Map<String, ClassData> newData = readData(newArtifact, newDumper, false);
+        if (checkThreads == 1 && maxErrors == 0) {
+            DIFF_ENGINE.diff(referenceData.values(), newData.values(), new RuleDiffListener(reporter, rules));
+            return;
+        }
+        List<ClassPair> pairs = pair(referenceData.values(), newData.values());
+        if (maxErrors > 0) {
+            Collections.sort(pairs, BREAKS_FIRST);
+        }
+        if (checkThreads > 1) {
+            checkInParallel(reporter, rules, pairs);
+        } else {
+            for (ClassPair pair : pairs) {
+                if (cancelled) {
+                    break;
+                }
+                pair.check(reporter, rules);
+            }
+        }
+    }
+
+    /**
+     * @return the class pairs, removed classes having no new class, in class name order.
+     */
+    private static List<ClassPair> pair(Collection<ClassData> referenceClasses, Collection<ClassData> newClasses) {
+        final List<ClassPair> pairs = new ArrayList<ClassPair>();
+        DIFF_ENGINE.pair(referenceClasses, newClasses, new DiffListener() {
+            public void classAdded(ClassData newClass) {
+            }
+
+            public void classRemoved(ClassData referenceClass) {
+                pairs.add(new ClassPair(referenceClass, null));
+            }
+
+            public void classChanged(ClassData referenceClass, ClassData newClass) {
+                pairs.add(new ClassPair(referenceClass, newClass));
+            }
+
+            public void memberAdded(ClassData referenceClass, JavaItem newMember) {
+            }
+
+            public void memberRemoved(JavaItem referenceMember, ClassData newClass) {
+            }
+
+            public void memberChanged(JavaItem referenceMember, JavaItem newMember) {
+            }
+        });
+        return pairs;
+    }
+
+    /**
+     * Checks the class pairs on a pool of workers, each pair reporting to its
+     * own buffer. The buffers are forwarded in pairing order, so the reports
+     * come in the same order as a sequential check.
+     */
+    private void checkInParallel(Reporter reporter, final List<Rule> rules, List<ClassPair> pairs) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(checkThreads);
+        try {
+            List<Future<List<Report>>> results = new ArrayList<Future<List<Report>>>();
+            for (final ClassPair pair : pairs) {
+                results.add(executor.submit(new Callable<List<Report>>() {
+                    public List<Report> call() {
+                        ReportBuffer buffer = new ReportBuffer();
+                        if (!cancelled) {
+                            pair.check(buffer, rules);
+                        }
+                        return buffer.reports;
                     }
-                    newClazz.checkBackwardCompatibility(reporter, clazz, rules);
-                    found = true;
+                }));
+            }
+            for (Future<List<Report>> result : results) {
+                if (cancelled) {
                     break;
                 }
+                try {
+                    for (Report report : result.get()) {
+                        reporter.report(report);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while checking " + newArtifact);
+                } catch (ExecutionException e) {
+                    rethrow(e.getCause(), newArtifact);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Report> resolveLineNumbers(List<Report> reports) throws IOException {
+        if (sharesClasses()) {
+            reports = copyReportedMethods(reports);
+        }
+        LineNumberResolver referenceResolver = new LineNumberResolver();
+        LineNumberResolver newResolver = new LineNumberResolver();
+        for (Report report : reports) {
+            if (report.referenceItem instanceof MethodData) {
+                referenceResolver.add((MethodData)report.referenceItem);
             }
-            if (!found && clazz.getVisibility() == Scope.PUBLIC) {
-                reporter.report(new Report(Level.ERROR, "Public class " + clazz.getName() + " has been removed.", clazz, null));
+            if (report.newItem instanceof MethodData) {
+                newResolver.add((MethodData)report.newItem);
             }
         }
+        if (reference != null) {
+            // a snapshot already has its line numbers.
+            referenceResolver.resolve(reference, new SourceFilter(false));
+        }
+        newResolver.resolve(newArtifact, new SourceFilter(false));
+        return reports;
     }
-    
-    
-    private List<ClassData>readData(File file, ClassDumper dumper) throws IOException {
-        if (file.isDirectory()) {
-            return this.readDataFromDir(file, dumper, null);
-        } else {
-            return this.readDataFromJar(file, dumper);
+
+    /**
+     * @return the reports, whose methods are replaced by copies, so the line
+     *         numbers of the methods shared with other versions are left as is.
+     */
+    private static List<Report> copyReportedMethods(List<Report> reports) {
+        Map<JavaItem, JavaItem> copies = new IdentityHashMap<JavaItem, JavaItem>();
+        List<Report> result = new ArrayList<Report>(reports.size());
+        for (Report report : reports) {
+            result.add(new Report(report.level, report.message, copy(report.referenceItem, copies), copy(report.newItem, copies)));
+        }
+        return result;
+    }
+
+    private static JavaItem copy(JavaItem item, Map<JavaItem, JavaItem> copies) {
+        if (!(item instanceof MethodData)) {
+            return item;
+        }
+        JavaItem copy = copies.get(item);
+        if (copy == null) {
+            MethodData method = (MethodData)item;
+            MethodData methodCopy = new MethodData(method.getOwner(), method.getAccess(), method.getName(), method.getDescriptor(),
+                    method.getSignature(), method.getExceptions().toArray(new String[method.getExceptions().size()]));
+            methodCopy.setLineNumber(method.getLineNumber());
+            copy = methodCopy;
+            copies.put(item, copy);
+        }
+        return copy;
+    }
+
+    private void comparePacked(Reporter reporter, List<Rule> rules) throws IOException {
+        if (referenceSnapshot != null) {
+            compareSnapshot(reporter, rules, readPacked(newArtifact, false));
+            return;
+        }
+        PackedModel referenceModel = readPacked(reference, true);
+        PackedModel newModel = readPacked(newArtifact, false);
+        for (int i = 0; i < referenceModel.size() && !cancelled; i++) {
+            int nameId = referenceModel.getNameId(i);
+            if (referenceModel.indexOf(nameId) != i) {
+                // the class is read again later, the last reading wins as with a dumper.
+                continue;
+            }
+            int j = newModel.indexOf(nameId);
+            if (j >= 0) {
+                check(reporter, rules, referenceModel.get(i), newModel.get(j));
+            } else if (referenceModel.getVisibility(i) == Scope.PUBLIC) {
+                checkRemoved(reporter, referenceModel.get(i));
+            }
         }
     }
 
-    private List<ClassData> readDataFromDir(File dir, ClassDumper dumper, String path) throws IOException {
-        byte buffer[] = new byte[2048]; 
-        if (path == null) {
-            path = "";
+    /**
+     * Compares the reference snapshot with the packed new classes, only
+     * materializing the classes of the snapshot being compared.
+     */
+    private void compareSnapshot(Reporter reporter, List<Rule> rules, PackedModel newModel) {
+        SourceFilter filter = new SourceFilter(true);
+        for (int i = 0; i < referenceSnapshot.size() && !cancelled; i++) {
+            if (!acceptsSnapshotClass(filter, i)) {
+                continue;
+            }
+            String name = referenceSnapshot.getName(i);
+            if (referenceSnapshot.indexOf(name) != i) {
+                // the class is read again later, the last reading wins as with a dumper.
+                continue;
+            }
+            int j = newModel.indexOf(symbols.lookup(name));
+            if (j >= 0) {
+                check(reporter, rules, referenceSnapshot.get(i), newModel.get(j));
+            } else if (JavaItem.toScope(referenceSnapshot.getAccess(i)) == Scope.PUBLIC) {
+                checkRemoved(reporter, referenceSnapshot.get(i));
+            }
         }
-        for (File file : dir.listFiles()) {
-            if (file.isDirectory()) {
-                readDataFromDir(file, dumper, path + file.getName() + "/");
-            } else if (file.getName().endsWith(".class") && shouldCheck(path + file.getName())) {
-                ByteArrayOutputStream os =  new ByteArrayOutputStream();
-                InputStream is = new FileInputStream(file);
-                int count = 0;
-                while ((count = is.read(buffer)) != -1) {
-                    os.write(buffer, 0, count);
+    }
+
+    private static void check(Reporter reporter, List<Rule> rules, ClassData clazz, ClassData newClazz) {
+        DIFF_ENGINE.diff(clazz, newClazz, new RuleDiffListener(reporter, rules));
+    }
+
+    private static void checkRemoved(Reporter reporter, ClassData clazz) {
+        new RuleDiffListener(reporter, Collections.<Rule>emptyList()).classRemoved(clazz);
+    }
+
+    /**
+     * Reads both artifacts on their own thread, and checks the classes on the
+     * calling thread as their versions get paired.
+     */
+    private void checkPipelined(Reporter reporter, List<Rule> rules) throws IOException {
+        BlockingQueue<ParsedClass> queue = new ArrayBlockingQueue<ParsedClass>(pipelineDepth);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            executor.submit(new PipelineReader(reference, true, queue));
+            executor.submit(new PipelineReader(newArtifact, false, queue));
+            Map<String, ClassData> pendingReference = new LinkedHashMap<String, ClassData>();
+            Map<String, ClassData> pendingNew = new HashMap<String, ClassData>();
+            int running = 2;
+            while (running > 0 && !cancelled) {
+                ParsedClass parsed = queue.take();
+                if (parsed.clazz == null) {
+                    if (parsed.error != null) {
+                        rethrow(parsed.error, parsed.reference ? reference : newArtifact);
+                    }
+                    running--;
+                } else if (parsed.reference) {
+                    ClassData newClazz = pendingNew.remove(parsed.clazz.getName());
+                    if (newClazz != null) {
+                        check(reporter, rules, parsed.clazz, newClazz);
+                    } else {
+                        pendingReference.put(parsed.clazz.getName(), parsed.clazz);
+                    }
+                } else {
+                    ClassData clazz = pendingReference.remove(parsed.clazz.getName());
+                    if (clazz != null) {
+                        check(reporter, rules, clazz, parsed.clazz);
+                    } else {
+                        pendingNew.put(parsed.clazz.getName(), parsed.clazz);
+                    }
                 }
-                ClassReader cr = new ClassReader(os.toByteArray());
-                cr.accept(dumper, 0);
             }
+            for (ClassData clazz : pendingReference.values()) {
+                if (cancelled) {
+                    break;
+                }
+                checkRemoved(reporter, clazz);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while checking " + reference + " against " + newArtifact);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void rethrow(Throwable error, ClassBytesSource source) throws IOException {
+        if (error instanceof IOException) {
+            throw (IOException)error;
+        } else if (error instanceof RuntimeException) {
+            throw (RuntimeException)error;
+        } else if (error instanceof Error) {
+            throw (Error)error;
         }
-        return dumper.getClasses();
+        throw new IOException("Error while reading " + source + ": " + error.getMessage());
     }
     
-    private List<ClassData> readDataFromJar(File jar, ClassDumper dumper) throws IOException {
-        FileInputStream fis = new FileInputStream(jar);
-        ZipInputStream zis = new ZipInputStream(new BufferedInputStream(fis));
-        ZipEntry entry = null;
-        byte buffer[] = new byte[2048];
-        int count = 0;
-        while((entry = zis.getNextEntry()) != null) {
-            if (entry.getName().endsWith(".class") && shouldCheck(entry.getName())) {
-                ByteArrayOutputStream os =  new ByteArrayOutputStream();
-                while ((count = zis.read(buffer)) != -1) {
-                    os.write(buffer, 0, count);
+    private Set<String> findIdenticalClasses() throws IOException {
+        Map<String, ClassChecksum> referenceChecksums = new HashMap<String, ClassChecksum>();
+        if (referenceSnapshot != null) {
+            SourceFilter filter = new SourceFilter(false);
+            for (int i = 0; i < referenceSnapshot.size(); i++) {
+                if (filter.accept(referenceSnapshot.getPath(i))) {
+                    referenceChecksums.put(referenceSnapshot.getPath(i), referenceSnapshot.getChecksum(i));
                 }
-                ClassReader cr = new ClassReader(os.toByteArray());
-                cr.accept(dumper, 0);
+            }
+        } else {
+            reference.readChecksums(new SourceFilter(false), referenceChecksums);
+        }
+        Map<String, ClassChecksum> newChecksums = new HashMap<String, ClassChecksum>();
+        newArtifact.readChecksums(new SourceFilter(false), newChecksums);
+        Set<String> result = new HashSet<String>();
+        for (Map.Entry<String, ClassChecksum> entry : referenceChecksums.entrySet()) {
+            ClassChecksum checksum = newChecksums.get(entry.getKey());
+            if (checksum != null && entry.getValue().matches(checksum)) {
+                result.add(entry.getKey());
             }
         }
-        return dumper.getClasses();
+        return result;
     }
-    
+
+    /**
+     * Compares the API trees of both artifacts, building the missing ones
+     * from all the included classes, identical ones too, so they can be stored.
+     */
+    private void findUnchangedApi() throws IOException {
+        if (referenceApiTree == null) {
+            referenceApiTree = referenceSnapshot != null ? referenceSnapshot.getApiTree(new SourceFilter(false))
+                    : ApiTree.build(reference, new SourceFilter(false));
+        }
+        if (newApiTree == null) {
+            newApiTree = ApiTree.build(newArtifact, new SourceFilter(false));
+        }
+        unchangedApiPackages = referenceApiTree.findUnchangedPackages(newApiTree);
+        unchangedApiClasses = referenceApiTree.findUnchangedClasses(newApiTree);
+        unchangedApiClassCount = unchangedApiClasses.size();
+        for (String name : unchangedApiPackages) {
+            unchangedApiClassCount += newApiTree.getFingerprints(name).size();
+        }
+    }
+
+    /**
+     * Materializes the classes of the reference snapshot selected by the
+     * filters, the last class read under a name winning as with a dumper.
+     */
+    private Map<String, ClassData> readSnapshot() {
+        Map<String, ClassData> classes = new HashMap<String, ClassData>();
+        SourceFilter filter = new SourceFilter(true);
+        for (int i = 0; i < referenceSnapshot.size(); i++) {
+            if (acceptsSnapshotClass(filter, i)) {
+                ClassData clazz = referenceSnapshot.get(i);
+                classes.put(clazz.getName(), clazz);
+            }
+        }
+        return classes;
+    }
+
+    private boolean acceptsSnapshotClass(SourceFilter filter, int index) {
+        return filter.accept(referenceSnapshot.getPath(index))
+                && (minimumVisibility == Scope.PRIVATE || isVisible(referenceSnapshot.getAccess(index)));
+    }
+
+    /**
+     * Reads the classes of the source. With several threads, the source is
+     * read on a thread of its own and the classes are parsed on a pool of workers.
+     */
+    private Map<String, ClassData> readData(ClassBytesSource source, final ClassDumper dumper, final boolean isReference) throws IOException {
+        if (threads > 1) {
+            parseInParallel(source, dumper, null, isReference);
+        } else {
+            source.read(new SourceFilter(true), new ClassBytesSource.Handler() {
+                public void handle(String path, ByteBuffer content) {
+                    if (!cancelled) {
+                        parse(content, dumper, isReference);
+                    }
+                }
+            });
+        }
+        return dumper.getClassIndex();
+    }
+
+    /**
+     * Reads the classes of the source into a packed model, each class being
+     * released once appended to the model.
+     */
+    private PackedModel readPacked(ClassBytesSource source, final boolean isReference) throws IOException {
+        final PackedModel model = new PackedModel(symbols);
+        final ClassDumper dumper = newDumper();
+        if (threads > 1) {
+            parseInParallel(source, dumper, model, isReference);
+        } else {
+            source.read(new SourceFilter(true), new ClassBytesSource.Handler() {
+                public void handle(String path, ByteBuffer content) {
+                    if (cancelled) {
+                        return;
+                    }
+                    ClassData clazz = parse(content, dumper, isReference);
+                    if (clazz != null) {
+                        model.add(dumper.remove(clazz.getName()));
+                    }
+                }
+            });
+        }
+        return model;
+    }
+
+    /**
+     * Parses classes on a pool of workers owning their own dumper, while
+     * the source is read on its own thread, so reading and parsing overlap.
+     * The results are merged in reading order, as soon as available, so the
+     * dumper, or the packed model if any, ends up with the same content as
+     * a sequential reading.
+     */
+    private void parseInParallel(ClassBytesSource source, ClassDumper dumper, PackedModel model, boolean isReference) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        try {
+            // bounded, so the reader does not run too far ahead of the merge.
+            BlockingQueue<Future<ClassData>> results = new ArrayBlockingQueue<Future<ClassData>>(threads * 4);
+            ParsingReader reader = new ParsingReader(source, isReference, executor, results);
+            executor.submit(reader);
+            Future<ClassData> result;
+            while ((result = results.take()) != END_OF_SOURCE) {
+                // once cancelled, the queue is only drained until the reader stops.
+                if (!cancelled) {
+                    merge(result, source, dumper, model);
+                }
+            }
+            if (reader.error != null) {
+                rethrow(reader.error, source);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading " + source);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void merge(Future<ClassData> result, ClassBytesSource source, ClassDumper dumper, PackedModel model) throws IOException {
+        ClassData clazz = null;
+        try {
+            clazz = result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading " + source);
+        } catch (ExecutionException e) {
+            rethrow(e.getCause(), source);
+        }
+        if (clazz == null) {
+            return;
+        } else if (model != null) {
+            model.add(clazz);
+        } else {
+            dumper.add(clazz);
+        }
+    }
+
+    private static byte[] toByteArray(ByteBuffer content) {
+        byte[] bytes = new byte[content.remaining()];
+        content.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private ClassDumper newDumper() {
+        return new ClassDumper(facets, symbols, sharesClasses() ? modelCache : null);
+    }
+
+    /**
+     * @return true if the parsed classes are interned in the model cache.
+     */
+    private boolean sharesClasses() {
+        return modelCache != null && referenceSnapshot == null && !packedModel && pipelineDepth == 0;
+    }
+
+    private ClassData parse(ByteBuffer content, ClassDumper dumper, boolean isReference) {
+        if (content.hasArray()) {
+            return parse(content.array(), content.arrayOffset() + content.position(), content.remaining(), dumper, isReference);
+        }
+        byte[] bytes = toByteArray(content);
+        return parse(bytes, 0, bytes.length, dumper, isReference);
+    }
+
+    /**
+     * A class and its new version, null if the class has been removed.
+     */
+    private static class ClassPair {
+        private final ClassData reference;
+        private final ClassData newClass;
+
+        ClassPair(ClassData reference, ClassData newClass) {
+            this.reference = reference;
+            this.newClass = newClass;
+        }
+
+        void check(Reporter reporter, List<Rule> rules) {
+            if (newClass == null) {
+                checkRemoved(reporter, reference);
+            } else {
+                BCChecker.check(reporter, rules, reference, newClass);
+            }
+        }
+
+        /**
+         * @return 0 for a removed public class, 1 for a public class, 2 otherwise.
+         */
+        int priority() {
+            if (reference.getVisibility() != Scope.PUBLIC) {
+                return 2;
+            }
+            return newClass == null ? 0 : 1;
+        }
+    }
+
+    /**
+     * Orders the pairs the most likely to break compatibility first, keeping
+     * the class name order otherwise.
+     */
+    private static final Comparator<ClassPair> BREAKS_FIRST = new Comparator<ClassPair>() {
+        public int compare(ClassPair pair, ClassPair other) {
+            return pair.priority() - other.priority();
+        }
+    };
+
+    /**
+     * Forwards the reports until the maximum number of errors has been
+     * reported, then cancels the check.
+     */
+    private class FailFastReporter implements Reporter {
+        private final Reporter reporter;
+        private int errors;
+
+        FailFastReporter(Reporter reporter) {
+            this.reporter = reporter;
+        }
+
+        public synchronized void report(Report report) {
+            if (cancelled) {
+                return;
+            }
+            reporter.report(report);
+            if (report.level == Reporter.Level.ERROR && ++errors >= maxErrors) {
+                cancelled = true;
+            }
+        }
+    }
+
+    /**
+     * Keeps the reports of a class pair until they can be forwarded in order.
+     */
+    private static class ReportBuffer implements Reporter {
+        private final List<Report> reports = new ArrayList<Report>();
+
+        public void report(Report report) {
+            reports.add(report);
+        }
+    }
+
+    /**
+     * Parses a class into the dumper, unless it is a reference class whose
+     * header shows it is below the minimum visibility. The new classes are
+     * all parsed, so a class whose visibility has been narrowed is still
+     * compared with its reference version rather than reported as removed.
+     * @return the parsed class, or null if it has been filtered out.
+     */
+    private ClassData parse(byte[] b, int off, int len, ClassDumper dumper, boolean isReference) {
+        if (isReference && minimumVisibility != Scope.PRIVATE && !isVisible(ClassHeaderReader.readAccess(b, off, len))) {
+            return null;
+        }
+        ClassReader cr = new ClassReader(b, off, len);
+        cr.accept(dumper, dumper.getParsingOptions());
+        return dumper.getClassData(cr.getClassName());
+    }
+
+    private boolean isVisible(int access) {
+        if ((access & Opcodes.ACC_SYNTHETIC) == Opcodes.ACC_SYNTHETIC) {
+            return false;
+        }
+        return JavaItem.toScope(access).getValue() >= minimumVisibility.getValue();
+    }
+
+    /**
+     * @return true if an exclude pattern matches everything under the directory.
+     */
+    private boolean isExcludedDirectory(String subpath) {
+        for (AntPatternMatcher exc : excludes) {
+            if (exc.matchesAllUnder(subpath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     protected boolean shouldCheck(String subpath) {
         boolean included = includes.size() == 0 ? true : false;
         for (AntPatternMatcher inc : includes) {
@@ -151,4 +1041,159 @@ public class BCChecker {
         }
         return included;
     }
+
+    /**
+     * Selects the classes to read according to the include and exclude
+     * patterns, and optionally the identical classes and the ones with an unchanged API.
+     */
+    private class SourceFilter implements ClassBytesSource.Filter {
+        private final boolean skipIdentical;
+
+        SourceFilter(boolean skipIdentical) {
+            this.skipIdentical = skipIdentical;
+        }
+
+        public boolean accept(String path) {
+            return !cancelled && shouldCheck(path)
+                    && !(skipIdentical && (identicalClasses.contains(path) || unchangedApiClasses.contains(path)
+                            || unchangedApiPackages.contains(ApiTree.getPackage(path))));
+        }
+
+        public boolean enterDirectory(String path) {
+            return !isExcludedDirectory(path);
+        }
+
+        public boolean enterArchive(String path) {
+            return nestedArchives && !isExcludedDirectory(path);
+        }
+    }
+
+    /**
+     * A class parsed by a pipeline reader, or the end of its reading when
+     * the class is null.
+     */
+    private static class ParsedClass {
+        private final boolean reference;
+        private final ClassData clazz;
+        private final Throwable error;
+
+        ParsedClass(boolean reference, ClassData clazz, Throwable error) {
+            this.reference = reference;
+            this.clazz = clazz;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Reads the classes of one artifact, handing each of them over to a
+     * parsing worker, then queues {@link #END_OF_SOURCE}.
+     */
+    private class ParsingReader implements Runnable {
+        private final ClassBytesSource source;
+        private final boolean isReference;
+        private final ExecutorService executor;
+        private final BlockingQueue<Future<ClassData>> results;
+        private final ThreadLocal<ClassDumper> workerDumpers = new ThreadLocal<ClassDumper>() {
+            @Override
+            protected ClassDumper initialValue() {
+                return newDumper();
+            }
+        };
+        private Throwable error;
+
+        ParsingReader(ClassBytesSource source, boolean isReference, ExecutorService executor, BlockingQueue<Future<ClassData>> results) {
+            this.source = source;
+            this.isReference = isReference;
+            this.executor = executor;
+            this.results = results;
+        }
+
+        public void run() {
+            try {
+                source.read(new SourceFilter(true), new ClassBytesSource.Handler() {
+                    public void handle(String path, ByteBuffer content) throws IOException {
+                        if (cancelled) {
+                            return;
+                        }
+                        // the buffer may be reused by the source, a copy is handed to the worker.
+                        final byte[] bytes = toByteArray(content);
+                        Future<ClassData> result = executor.submit(new Callable<ClassData>() {
+                            public ClassData call() {
+                                if (cancelled) {
+                                    return null;
+                                }
+                                ClassDumper workerDumper = workerDumpers.get();
+                                ClassData clazz = parse(bytes, 0, bytes.length, workerDumper, isReference);
+                                return clazz == null ? null : workerDumper.remove(clazz.getName());
+                            }
+                        });
+                        try {
+                            results.put(result);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("Interrupted while reading " + source);
+                        }
+                    }
+                });
+            } catch (Throwable e) {
+                error = e;
+            }
+            if (!Thread.currentThread().isInterrupted()) {
+                try {
+                    results.put(END_OF_SOURCE);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads and parses the classes of one artifact, handing them over to
+     * the checking thread.
+     */
+    private class PipelineReader implements Runnable {
+        private final ClassBytesSource source;
+        private final boolean reference;
+        private final BlockingQueue<ParsedClass> queue;
+
+        PipelineReader(ClassBytesSource source, boolean reference, BlockingQueue<ParsedClass> queue) {
+            this.source = source;
+            this.reference = reference;
+            this.queue = queue;
+        }
+
+        public void run() {
+            final ClassDumper dumper = newDumper();
+            Throwable error = null;
+            try {
+                source.read(new SourceFilter(true), new ClassBytesSource.Handler() {
+                    public void handle(String path, ByteBuffer content) throws IOException {
+                        if (cancelled) {
+                            return;
+                        }
+                        ClassData clazz = parse(content, dumper, reference);
+                        if (clazz != null) {
+                            dumper.remove(clazz.getName());
+                            try {
+                                queue.put(new ParsedClass(reference, clazz, null));
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new InterruptedIOException("Interrupted while reading " + source);
+                            }
+                        }
+                    }
+                });
+            } catch (Throwable e) {
+                error = e;
+            }
+            if (!Thread.currentThread().isInterrupted()) {
+                try {
+                    queue.put(new ParsedClass(reference, null, error));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
 }
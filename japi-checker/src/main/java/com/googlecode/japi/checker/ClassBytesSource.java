@@ -0,0 +1,79 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Provides the class files of an artifact, as (path, content) pairs.
+ * Paths are relative to the root of the artifact and use '/' as separator,
+ * classes of nested archives are addressed as 'nested.jar!/path/Class.class'.
+ *
+ * Implementations for jars, directories, jmods, the jrt:/ file system and
+ * in-memory classes are available in the com.googlecode.japi.checker.sources package.
+ */
+public interface ClassBytesSource {
+
+    /**
+     * Reads the class files accepted by the filter, in a stable order.
+     * @param filter selects the entries to read.
+     * @param handler receives the content of each class file.
+     * @throws IOException if the artifact cannot be read.
+     */
+    void read(Filter filter, Handler handler) throws IOException;
+
+    /**
+     * Collects the size and CRC-32 of the class files accepted by the filter,
+     * ideally without reading their content.
+     * @param filter selects the entries.
+     * @param checksums the map receiving the checksums, by path.
+     * @throws IOException if the artifact cannot be read.
+     */
+    void readChecksums(Filter filter, Map<String, ClassChecksum> checksums) throws IOException;
+
+    public interface Filter {
+        /**
+         * @param path the path of a class file.
+         * @return true if the class file must be read.
+         */
+        boolean accept(String path);
+
+        /**
+         * @param path the path of a directory.
+         * @return false to skip the directory and everything under it.
+         */
+        boolean enterDirectory(String path);
+
+        /**
+         * @param path the path of an archive nested in the artifact.
+         * @return true to read the classes of the nested archive.
+         */
+        boolean enterArchive(String path);
+    }
+
+    public interface Handler {
+        /**
+         * Handles the content of a class file. The buffer may be reused by
+         * the source once the method has returned.
+         * @param path the path of the class file.
+         * @param content the content of the class file, from its position to its limit.
+         * @throws IOException if the content cannot be processed.
+         */
+        void handle(String path, ByteBuffer content) throws IOException;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Size and CRC-32 of a class file. Sources which would have to read
+ * the content to get the CRC override {@link #computeCrc()}, so it is
+ * only computed when the sizes of two classes match.
+ */
+public class ClassChecksum {
+    private final long size;
+    private long crc = -1;
+
+    public ClassChecksum(long size, long crc) {
+        this.size = size;
+        this.crc = crc;
+    }
+
+    protected ClassChecksum(long size) {
+        this.size = size;
+    }
+
+    /**
+     * Computes the CRC-32 of the content, called at most once.
+     * @return the CRC-32.
+     * @throws IOException if the content cannot be read.
+     */
+    protected long computeCrc() throws IOException {
+        throw new IllegalStateException("No CRC available.");
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getCrc() throws IOException {
+        if (crc < 0) {
+            crc = computeCrc();
+        }
+        return crc;
+    }
+
+    public boolean matches(ClassChecksum other) throws IOException {
+        return size == other.size && getCrc() == other.getCrc();
+    }
+
+    public static long crc(byte[] b, int off, int len) {
+        CRC32 checksum = new CRC32();
+        checksum.update(b, off, len);
+        return checksum.getValue();
+    }
+
+    /**
+     * @param file a file, e.g. an artifact.
+     * @return the CRC-32 of the content of the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public static long crc(File file) throws IOException {
+        CRC32 checksum = new CRC32();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int count = 0;
+            while ((count = in.read(buffer)) != -1) {
+                checksum.update(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+        return checksum.getValue();
+    }
+}
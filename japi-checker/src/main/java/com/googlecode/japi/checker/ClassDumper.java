@@ -16,32 +16,112 @@
 package com.googlecode.japi.checker;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.FieldVisitor;
 import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 
 import com.googlecode.japi.checker.model.ClassData;
 import com.googlecode.japi.checker.model.FieldData;
 import com.googlecode.japi.checker.model.InnerClassData;
 import com.googlecode.japi.checker.model.MethodData;
+import com.googlecode.japi.checker.utils.SymbolTable;
 
-public class ClassDumper implements ClassVisitor {
-    private Logger logger = Logger.getLogger(ClassDumper.class.getName());
+public class ClassDumper extends ClassVisitor {
+    private static final Logger logger = Logger.getLogger(ClassDumper.class.getName());
     private ClassData clazz; // current main class being parsed.
+    // header of the class, kept until its source is known, as classes are immutable.
+    private int access;
+    private String name;
+    private String signature;
+    private String superName;
+    private String[] interfaces;
+    private int version;
+    private String source;
     private Map<String, ClassData> classes = new HashMap<String, ClassData>();
+    private final Set<Facet> facets;
+    private final SymbolTable symbols;
+    private final ModelCache cache;
+    // ASM visits the methods one after the other, so a single method dumper is reused.
+    private final MethodDumper methodDumper = new MethodDumper(null);
+
+    public ClassDumper() {
+        this(EnumSet.allOf(Facet.class));
+    }
+
+    /**
+     * @param facets the facets of the classes to collect, the others being ignored.
+     */
+    public ClassDumper(Set<Facet> facets) {
+        this(facets, new SymbolTable());
+    }
+
+    /**
+     * @param facets the facets of the classes to collect, the others being ignored.
+     * @param symbols the symbol table of the classes, to share with the dumpers
+     *        of the classes they are compared with.
+     */
+    public ClassDumper(Set<Facet> facets, SymbolTable symbols) {
+        this(facets, symbols, null);
+    }
+
+    /**
+     * @param facets the facets of the classes to collect, the others being ignored.
+     * @param symbols the symbol table of the classes, to share with the dumpers
+     *        of the classes they are compared with.
+     * @param cache the cache each parsed class is interned in, replacing it
+     *        by the shared instance if any, or null.
+     */
+    public ClassDumper(Set<Facet> facets, SymbolTable symbols, ModelCache cache) {
+        super(Opcodes.ASM9);
+        this.facets = EnumSet.noneOf(Facet.class);
+        this.facets.addAll(facets);
+        this.symbols = symbols;
+        this.cache = cache;
+    }
+
+    /**
+     * @return the flags to give to ClassReader.accept, skipping the code unless line numbers are needed.
+     */
+    public int getParsingOptions() {
+        return facets.contains(Facet.LINE_NUMBERS) ? ClassReader.SKIP_FRAMES : ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES;
+    }
     
     public void visit(int version, int access, String name, String signature,
             String superName, String[] interfaces) {
-        logger.fine("class " + name + " extends " + superName + " {");
-        clazz = new ClassData(null, access, name, signature, superName, interfaces, version);
-        classes.put(name, clazz);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("class " + name + " extends " + superName + " {");
+        }
+        this.access = access;
+        this.name = name;
+        this.signature = facets.contains(Facet.SIGNATURES) ? signature : null;
+        this.superName = superName;
+        this.interfaces = interfaces;
+        this.version = version;
+        this.source = null;
+    }
+
+    /**
+     * @return the class being parsed, created on the first visit following its header.
+     */
+    private ClassData current() {
+        if (clazz == null) {
+            clazz = new ClassData(symbols, null, access, name, signature, superName, interfaces, version, source);
+            classes.put(name, clazz);
+        }
+        return clazz;
     }
 
     public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
@@ -53,41 +133,109 @@ public class ClassDumper implements ClassVisitor {
 
     public void visitEnd() {
         logger.fine("}");
+        ClassData parsed = current().freeze();
+        if (cache != null) {
+            // the parsed instance is released right away when already shared.
+            classes.put(parsed.getName(), cache.intern(parsed));
+        }
         clazz = null;
+        name = null;
+        signature = null;
+        superName = null;
+        interfaces = null;
+        source = null;
     }
 
     public FieldVisitor visitField(int access, String name, String desc,
             String signature, Object value) {
-        logger.fine("    -(field) " + name + " " + signature + " " + desc);
-        clazz.add(new FieldData(clazz, access, name, desc, signature, value));
+        if (!facets.contains(Facet.FIELDS)) {
+            return null;
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("    -(field) " + name + " " + signature + " " + desc);
+        }
+        ClassData clazz = current();
+        clazz.add(new FieldData(clazz, access, name, desc,
+                facets.contains(Facet.SIGNATURES) ? signature : null,
+                facets.contains(Facet.CONSTANT_VALUES) ? value : null));
         return null;
     }
 
     public void visitInnerClass(String name, String outerName, String innerName, int access) {
-        logger.fine("    +(ic) " + name + " " + outerName + " " + innerName + " " + access);
-        //clazz = new ClassData(access, name, innerName);
+        if (!facets.contains(Facet.INNER_CLASSES)) {
+            return;
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("    +(ic) " + name + " " + outerName + " " + innerName + " " + access);
+        }
+        ClassData clazz = current();
         clazz.add(new InnerClassData(clazz, access, name, outerName, innerName));
     }
 
     public MethodVisitor visitMethod(int access, String name, String descriptor,
             String signature, String[] exceptions) {
-        logger.fine("    +(m) " + name + " " + descriptor + " " + signature + " " + exceptions);
-        MethodData method = new MethodData(clazz, access, name, descriptor, signature, exceptions);
+        if (!facets.contains(Facet.METHODS)) {
+            return null;
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("    +(m) " + name + " " + descriptor + " " + signature + " " + exceptions);
+        }
+        ClassData clazz = current();
+        MethodData method = new MethodData(clazz, access, name, descriptor,
+                facets.contains(Facet.SIGNATURES) ? signature : null,
+                facets.contains(Facet.EXCEPTIONS) ? exceptions : null);
         clazz.add(method);
-        return new MethodDumper(method);
+        return facets.contains(Facet.LINE_NUMBERS) ? methodDumper.reset(method) : null;
     }
 
     public void visitOuterClass(String owner, String name, String desc) {
-        logger.fine("    *(oc) " + name + " " + desc);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("    *(oc) " + name + " " + desc);
+        }
     }
 
     public void visitSource(String source, String debug) {
-        logger.fine(" - source: " + source);
-        logger.fine(" - debug: " + debug);
-        clazz.setSource(source);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(" - source: " + source);
+            logger.fine(" - debug: " + debug);
+        }
+        this.source = source;
+    }
+
+    /**
+     * Registers a class parsed by another dumper, e.g. a worker
+     * dumper used for parallel parsing.
+     * @param clazz the class to add.
+     */
+    public void add(ClassData clazz) {
+        classes.put(clazz.getName(), clazz);
+    }
+
+    /**
+     * @param name the internal name of the class.
+     * @return the class parsed under that name, or null.
+     */
+    public ClassData getClassData(String name) {
+        return classes.get(name);
+    }
+
+    /**
+     * Removes a class from the dumper, so it can be released once handed over.
+     * @param name the internal name of the class.
+     * @return the removed class, or null.
+     */
+    public ClassData remove(String name) {
+        return classes.remove(name);
     }
 
     public List<ClassData> getClasses() {
         return new ArrayList<ClassData>(classes.values());
     }
+
+    /**
+     * @return a read-only view of the classes, indexed by internal name.
+     */
+    public Map<String, ClassData> getClassIndex() {
+        return Collections.unmodifiableMap(classes);
+    }
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The parts of the class model which are only collected when a rule needs
+ * them. The name, access flags, super class, interfaces, version and source
+ * file of the classes are always collected.
+ */
+public enum Facet {
+    /** The fields of the classes, with their name, access flags and type. */
+    FIELDS,
+    /** The methods of the classes, with their name, access flags and descriptor. */
+    METHODS,
+    /** The exceptions declared by the methods. */
+    EXCEPTIONS,
+    /** The generic signatures of the classes, fields and methods. */
+    SIGNATURES,
+    /** The inner classes declared by the classes. */
+    INNER_CLASSES,
+    /** The line numbers of the methods, which requires decoding their code. */
+    LINE_NUMBERS,
+    /** The constant values of the fields. */
+    CONSTANT_VALUES;
+
+    /**
+     * @param rules the rules to run.
+     * @return the facets needed by the rules, all of them for rules not implementing {@link FacetedRule}.
+     */
+    public static Set<Facet> requiredBy(List<? extends Rule> rules) {
+        Set<Facet> facets = EnumSet.noneOf(Facet.class);
+        for (Rule rule : rules) {
+            if (rule instanceof FacetedRule) {
+                facets.addAll(((FacetedRule)rule).getRequiredFacets());
+            } else {
+                return EnumSet.allOf(Facet.class);
+            }
+        }
+        return facets;
+    }
+}
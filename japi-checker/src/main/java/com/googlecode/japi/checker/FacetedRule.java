@@ -0,0 +1,31 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker;
+
+import java.util.Set;
+
+/**
+ * A rule declaring the parts of the class model it reads, so the classes
+ * are parsed only for those. Rules not implementing this interface are
+ * given the complete model.
+ */
+public interface FacetedRule extends Rule {
+
+    /**
+     * @return the facets read by the rule, possibly none.
+     */
+    Set<Facet> getRequiredFacets();
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import com.googlecode.japi.checker.model.MethodData;
+
+/**
+ * Resolves the line numbers of methods parsed without their code, by
+ * re-reading only the classes declaring them, and only the code of those methods.
+ */
+class LineNumberResolver implements ClassBytesSource.Handler {
+    // methods by class name, then by name and descriptor.
+    private final Map<String, Map<String, MethodData>> methods = new HashMap<String, Map<String, MethodData>>();
+
+    public void add(MethodData method) {
+        String className = method.getOwner().getName();
+        Map<String, MethodData> classMethods = methods.get(className);
+        if (classMethods == null) {
+            classMethods = new HashMap<String, MethodData>();
+            methods.put(className, classMethods);
+        }
+        classMethods.put(method.getName() + method.getDescriptor(), method);
+    }
+
+    public void resolve(ClassBytesSource source, final ClassBytesSource.Filter filter) throws IOException {
+        if (methods.isEmpty()) {
+            return;
+        }
+        source.read(new ClassBytesSource.Filter() {
+            public boolean accept(String path) {
+                return mayDeclareMethods(path) && filter.accept(path);
+            }
+
+            public boolean enterDirectory(String path) {
+                return filter.enterDirectory(path);
+            }
+
+            public boolean enterArchive(String path) {
+                return filter.enterArchive(path);
+            }
+        }, this);
+    }
+
+    public void handle(String path, ByteBuffer content) {
+        byte[] bytes = new byte[content.remaining()];
+        content.duplicate().get(bytes);
+        ClassReader cr = new ClassReader(bytes);
+        Map<String, MethodData> classMethods = methods.get(cr.getClassName());
+        if (classMethods != null) {
+            cr.accept(new LineNumberVisitor(classMethods), ClassReader.SKIP_FRAMES);
+        }
+    }
+
+    /**
+     * @return true if the path may hold a class declaring requested methods.
+     *         Classes may be stored under a prefix, e.g. 'WEB-INF/classes/',
+     *         'BOOT-INF/classes/' or 'META-INF/versions/9/', so each suffix of
+     *         the path is tried, the class name being checked once read.
+     */
+    private boolean mayDeclareMethods(String path) {
+        String name = path.substring(0, path.length() - ".class".length());
+        int start = 0;
+        while (start >= 0) {
+            if (methods.containsKey(name.substring(start))) {
+                return true;
+            }
+            int slash = name.indexOf('/', start);
+            start = slash < 0 ? -1 : slash + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Only visits the code of the requested methods.
+     */
+    private static class LineNumberVisitor extends ClassVisitor {
+        private final Map<String, MethodData> methods;
+
+        LineNumberVisitor(Map<String, MethodData> methods) {
+            super(Opcodes.ASM9);
+            this.methods = methods;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc,
+                String signature, String[] exceptions) {
+            MethodData method = methods.get(name + desc);
+            return method == null ? null : new MethodDumper(method);
+        }
+    }
+}
@@ -0,0 +1,593 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.googlecode.japi.checker.model.ClassData;
+import com.googlecode.japi.checker.model.FieldData;
+import com.googlecode.japi.checker.model.InnerClassData;
+import com.googlecode.japi.checker.model.MethodData;
+import com.googlecode.japi.checker.utils.SymbolTable;
+
+/**
+ * A snapshot laid out to be memory-mapped and queried in place, so the
+ * reference classes stay off-heap and are shared between processes through
+ * the page cache. Opening it only checks the header.
+ *
+ * The file holds a header of counts and origin, then the sections below,
+ * every number being big-endian:
+ * <ul>
+ * <li>the string pool offsets, one int per string plus the end, strings being
+ *     sorted by their UTF-8 bytes so their id gives their order;</li>
+ * <li>the class records, the class index (class record numbers sorted by name),
+ *     the interfaces, the field, method and exception records and the inner
+ *     class records, all of fixed width;</li>
+ * <li>the UTF-8 bytes of the strings.</li>
+ * </ul>
+ * Lookups by name binary search the string pool, then the class index,
+ * comparing bytes in place. Only the classes being compared are materialized,
+ * as short lived {@link ClassData} views whose symbols are decoded lazily, the
+ * id of a symbol being the one of its string in the pool.
+ */
+public class MappedApiSnapshot implements ApiSnapshot {
+    private static final int MAGIC = 0x4A41504D; // JAPM
+    private static final int FORMAT_VERSION = 2;
+    // magic, version, the 7 counts, the origin string and its CRC-32.
+    private static final int HEADER_SIZE = 10 * 4 + 8;
+    private static final int HEADER_ORIGIN = 36;
+    private static final int HEADER_ORIGIN_CRC = 40;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int NO_STRING = -1;
+
+    // class record: name, access, signature, super name, version, source, path,
+    // interface, field, method and inner class ranges, size, crc and fingerprint.
+    private static final int CLASS_NAME = 0;
+    private static final int CLASS_ACCESS = 4;
+    private static final int CLASS_SIGNATURE = 8;
+    private static final int CLASS_SUPER_NAME = 12;
+    private static final int CLASS_VERSION = 16;
+    private static final int CLASS_SOURCE = 20;
+    private static final int CLASS_PATH = 24;
+    private static final int CLASS_INTERFACES = 28;
+    private static final int CLASS_FIELDS = 36;
+    private static final int CLASS_METHODS = 44;
+    private static final int CLASS_INNER_CLASSES = 52;
+    private static final int CLASS_SIZE = 60;
+    private static final int CLASS_CRC = 68;
+    private static final int CLASS_FINGERPRINT = 76;
+    private static final int CLASS_RECORD = 84;
+    // field record: name, access, descriptor, signature, value type and value.
+    private static final int FIELD_VALUE_TYPE = 16;
+    private static final int FIELD_VALUE = 20;
+    private static final int FIELD_RECORD = 28;
+    // method record: name, access, descriptor, signature, line and exception range.
+    private static final int METHOD_LINE = 16;
+    private static final int METHOD_EXCEPTIONS = 20;
+    private static final int METHOD_RECORD = 28;
+    // inner class record: name, access, outer name and inner name.
+    private static final int INNER_CLASS_RECORD = 16;
+
+    private final ByteBuffer buffer;
+    private final MappedSymbols symbols;
+    private final int stringCount;
+    private final int classCount;
+    // section offsets
+    private final int stringOffsets;
+    private final int classes;
+    private final int classIndex;
+    private final int interfaces;
+    private final int fields;
+    private final int methods;
+    private final int exceptions;
+    private final int innerClasses;
+    private final int strings;
+
+    private MappedApiSnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Not a mapped API snapshot.");
+        }
+        stringCount = buffer.getInt(8);
+        classCount = buffer.getInt(12);
+        if (stringCount < 0 || classCount < 0) {
+            throw new IOException("Invalid mapped API snapshot.");
+        }
+        long offset = HEADER_SIZE;
+        stringOffsets = checkOffset(offset);
+        offset += 4L * (stringCount + 1);
+        classes = checkOffset(offset);
+        offset += (long)CLASS_RECORD * classCount;
+        classIndex = checkOffset(offset);
+        offset += 4L * classCount;
+        interfaces = checkOffset(offset);
+        offset += 4L * buffer.getInt(16);
+        fields = checkOffset(offset);
+        offset += (long)FIELD_RECORD * buffer.getInt(20);
+        methods = checkOffset(offset);
+        offset += (long)METHOD_RECORD * buffer.getInt(24);
+        exceptions = checkOffset(offset);
+        offset += 4L * buffer.getInt(28);
+        innerClasses = checkOffset(offset);
+        offset += (long)INNER_CLASS_RECORD * buffer.getInt(32);
+        strings = checkOffset(offset);
+        if (strings + (long)buffer.getInt(stringOffsets + 4 * stringCount) > buffer.capacity()) {
+            throw new IOException("Truncated mapped API snapshot.");
+        }
+        symbols = new MappedSymbols();
+    }
+
+    private int checkOffset(long offset) throws IOException {
+        if (offset < 0 || offset > buffer.capacity()) {
+            throw new IOException("Truncated mapped API snapshot.");
+        }
+        return (int)offset;
+    }
+
+    /**
+     * Maps a snapshot file, read only. The mapping is released once the
+     * snapshot is garbage collected.
+     * @param file a file written by {@link #write(ApiSnapshot, File)}.
+     * @return the snapshot.
+     * @throws IOException if the file cannot be mapped, or is not a valid snapshot.
+     */
+    public static MappedApiSnapshot open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to be mapped.");
+            }
+            return new MappedApiSnapshot(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+        } catch (IOException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        } finally {
+            // the mapping stays valid once the channel is closed.
+            raf.close();
+        }
+    }
+
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    public String getOrigin() {
+        return getString(buffer.getInt(HEADER_ORIGIN));
+    }
+
+    public long getOriginCrc() {
+        return buffer.getLong(HEADER_ORIGIN_CRC);
+    }
+
+    public int size() {
+        return classCount;
+    }
+
+    public String getName(int index) {
+        return getString(getClassInt(index, CLASS_NAME));
+    }
+
+    public int indexOf(String name) {
+        int nameId = findString(name.getBytes(UTF8));
+        if (nameId < 0) {
+            return -1;
+        }
+        // upper bound of the name in the index, ties being in class order.
+        int low = 0;
+        int high = classCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getClassInt(buffer.getInt(classIndex + 4 * middle), CLASS_NAME) <= nameId) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (low == 0) {
+            return -1;
+        }
+        int index = buffer.getInt(classIndex + 4 * (low - 1));
+        return getClassInt(index, CLASS_NAME) == nameId ? index : -1;
+    }
+
+    public int getAccess(int index) {
+        return getClassInt(index, CLASS_ACCESS);
+    }
+
+    public String getPath(int index) {
+        return getString(getClassInt(index, CLASS_PATH));
+    }
+
+    public ClassChecksum getChecksum(int index) {
+        return new ClassChecksum(getClassLong(index, CLASS_SIZE), getClassLong(index, CLASS_CRC));
+    }
+
+    public long getFingerprint(int index) {
+        return getClassLong(index, CLASS_FINGERPRINT);
+    }
+
+    public ApiTree getApiTree(ClassBytesSource.Filter filter) {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (int i = 0; i < classCount; i++) {
+            String path = getPath(i);
+            if (filter.accept(path)) {
+                result.put(path, getFingerprint(i));
+            }
+        }
+        return new ApiTree(result);
+    }
+
+    public ClassData get(int index) {
+        int record = classes + CLASS_RECORD * index;
+        int start = buffer.getInt(record + CLASS_INTERFACES);
+        String[] interfaceNames = new String[buffer.getInt(record + CLASS_INTERFACES + 4) - start];
+        for (int i = 0; i < interfaceNames.length; i++) {
+            interfaceNames[i] = getString(buffer.getInt(interfaces + 4 * (start + i)));
+        }
+        ClassData clazz = new ClassData(symbols, null, buffer.getInt(record + CLASS_ACCESS),
+                getString(buffer.getInt(record + CLASS_NAME)), getString(buffer.getInt(record + CLASS_SIGNATURE)),
+                getString(buffer.getInt(record + CLASS_SUPER_NAME)), interfaceNames,
+                buffer.getInt(record + CLASS_VERSION), getString(buffer.getInt(record + CLASS_SOURCE)));
+        for (int i = buffer.getInt(record + CLASS_FIELDS); i < buffer.getInt(record + CLASS_FIELDS + 4); i++) {
+            int field = fields + FIELD_RECORD * i;
+            clazz.add(new FieldData(clazz, buffer.getInt(field + 4), getString(buffer.getInt(field)),
+                    getString(buffer.getInt(field + 8)), getString(buffer.getInt(field + 12)), getValue(field)));
+        }
+        for (int i = buffer.getInt(record + CLASS_METHODS); i < buffer.getInt(record + CLASS_METHODS + 4); i++) {
+            int method = methods + METHOD_RECORD * i;
+            int exceptionStart = buffer.getInt(method + METHOD_EXCEPTIONS);
+            String[] exceptionNames = new String[buffer.getInt(method + METHOD_EXCEPTIONS + 4) - exceptionStart];
+            for (int j = 0; j < exceptionNames.length; j++) {
+                exceptionNames[j] = getString(buffer.getInt(exceptions + 4 * (exceptionStart + j)));
+            }
+            MethodData methodData = new MethodData(clazz, buffer.getInt(method + 4), getString(buffer.getInt(method)),
+                    getString(buffer.getInt(method + 8)), getString(buffer.getInt(method + 12)), exceptionNames);
+            methodData.setLineNumber(buffer.getInt(method + METHOD_LINE));
+            clazz.add(methodData);
+        }
+        for (int i = buffer.getInt(record + CLASS_INNER_CLASSES); i < buffer.getInt(record + CLASS_INNER_CLASSES + 4); i++) {
+            int innerClass = innerClasses + INNER_CLASS_RECORD * i;
+            clazz.add(new InnerClassData(clazz, buffer.getInt(innerClass + 4), getString(buffer.getInt(innerClass)),
+                    getString(buffer.getInt(innerClass + 8)), getString(buffer.getInt(innerClass + 12))));
+        }
+        return clazz.freeze();
+    }
+
+    /**
+     * Writes the snapshot in the mapped layout, e.g. to copy it.
+     */
+    public void write(File file) throws IOException {
+        write(this, file);
+    }
+
+    private int getClassInt(int index, int offset) {
+        return buffer.getInt(classes + CLASS_RECORD * index + offset);
+    }
+
+    private long getClassLong(int index, int offset) {
+        return buffer.getLong(classes + CLASS_RECORD * index + offset);
+    }
+
+    private Object getValue(int field) {
+        long value = buffer.getLong(field + FIELD_VALUE);
+        switch (buffer.getInt(field + FIELD_VALUE_TYPE)) {
+        case 1:
+            return Integer.valueOf((int)value);
+        case 2:
+            return Long.valueOf(value);
+        case 3:
+            return Float.valueOf(Float.intBitsToFloat((int)value));
+        case 4:
+            return Double.valueOf(Double.longBitsToDouble(value));
+        case 5:
+            return getString((int)value);
+        default:
+            return null;
+        }
+    }
+
+    private String getString(int id) {
+        return symbols.get(id);
+    }
+
+    private String decodeString(int id) {
+        int start = buffer.getInt(stringOffsets + 4 * id);
+        byte[] bytes = new byte[buffer.getInt(stringOffsets + 4 * id + 4) - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(strings + start + i);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * @return the id of the string, or -1.
+     */
+    private int findString(byte[] key) {
+        int low = 0;
+        int high = stringCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int start = buffer.getInt(stringOffsets + 4 * middle);
+            int end = buffer.getInt(stringOffsets + 4 * middle + 4);
+            int comparison = compare(strings + start, end - start, key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The string pool seen as a symbol table, which holds the strings of the
+     * snapshot only. Strings are decoded on first use.
+     */
+    private class MappedSymbols extends SymbolTable {
+        private final String[] decoded = new String[stringCount];
+        private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+        @Override
+        public synchronized int intern(String symbol) {
+            int id = lookup(symbol);
+            if (id == NO_SYMBOL && symbol != null) {
+                throw new IllegalArgumentException(symbol + " is not a string of the snapshot.");
+            }
+            return id;
+        }
+
+        @Override
+        public synchronized int lookup(String symbol) {
+            if (symbol == null) {
+                return NO_SYMBOL;
+            }
+            Integer id = ids.get(symbol);
+            return id != null ? id.intValue() : findString(symbol.getBytes(UTF8));
+        }
+
+        @Override
+        public synchronized String get(int id) {
+            if (id == NO_STRING) {
+                return null;
+            }
+            if (decoded[id] == null) {
+                decoded[id] = decodeString(id);
+                ids.put(decoded[id], id);
+            }
+            return decoded[id];
+        }
+
+        @Override
+        public int size() {
+            return stringCount;
+        }
+    }
+
+    /**
+     * Compares the bytes of the buffer with a key, as unsigned bytes.
+     */
+    private int compare(int offset, int length, byte[] key) {
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (buffer.get(offset + i) & 0xff) - (key[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - key.length;
+    }
+
+    /**
+     * Writes a snapshot in the mapped layout. The classes are materialized
+     * twice, once to collect their strings and once to write them.
+     * @param snapshot the snapshot to write, e.g. a {@link PackedApiSnapshot}.
+     * @param file the file to write.
+     * @throws IOException if the file cannot be written, or would be too large to be mapped.
+     */
+    public static void write(ApiSnapshot snapshot, File file) throws IOException {
+        int classCount = snapshot.size();
+        Set<String> stringSet = new HashSet<String>();
+        int interfaceCount = 0;
+        int fieldCount = 0;
+        int methodCount = 0;
+        int exceptionCount = 0;
+        int innerClassCount = 0;
+        for (int i = 0; i < classCount; i++) {
+            ClassData clazz = snapshot.get(i);
+            Collections.addAll(stringSet, clazz.getName(), clazz.getSignature(), clazz.getSuperName(), clazz.getSource(),
+                    snapshot.getPath(i));
+            stringSet.addAll(clazz.getInterfaces());
+            interfaceCount += clazz.getInterfaces().size();
+            for (FieldData field : clazz.getFields()) {
+                Collections.addAll(stringSet, field.getName(), field.getDescriptor(), field.getSignature());
+                if (field.getValue() instanceof String) {
+                    stringSet.add((String)field.getValue());
+                }
+            }
+            fieldCount += clazz.getFields().size();
+            for (MethodData method : clazz.getMethods()) {
+                Collections.addAll(stringSet, method.getName(), method.getDescriptor(), method.getSignature());
+                stringSet.addAll(method.getExceptions());
+                exceptionCount += method.getExceptions().size();
+            }
+            methodCount += clazz.getMethods().size();
+            for (InnerClassData innerClass : clazz.getInnerClasses()) {
+                Collections.addAll(stringSet, innerClass.getName(), innerClass.getOuterName(), innerClass.getInnerName());
+            }
+            innerClassCount += clazz.getInnerClasses().size();
+        }
+        stringSet.add(snapshot.getOrigin());
+        stringSet.remove(null);
+
+        // the string pool, sorted by UTF-8 bytes.
+        List<byte[]> pool = new ArrayList<byte[]>(stringSet.size());
+        for (String string : stringSet) {
+            pool.add(string.getBytes(UTF8));
+        }
+        Collections.sort(pool, new Comparator<byte[]>() {
+            public int compare(byte[] a, byte[] b) {
+                int common = Math.min(a.length, b.length);
+                for (int i = 0; i < common; i++) {
+                    int difference = (a[i] & 0xff) - (b[i] & 0xff);
+                    if (difference != 0) {
+                        return difference;
+                    }
+                }
+                return a.length - b.length;
+            }
+        });
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        long stringBytes = 0;
+        for (byte[] string : pool) {
+            ids.put(new String(string, UTF8), ids.size());
+            stringBytes += string.length;
+        }
+
+        long length = HEADER_SIZE + 4L * (pool.size() + 1) + (long)CLASS_RECORD * classCount + 4L * classCount
+                + 4L * interfaceCount + (long)FIELD_RECORD * fieldCount + (long)METHOD_RECORD * methodCount
+                + 4L * exceptionCount + (long)INNER_CLASS_RECORD * innerClassCount + stringBytes;
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("The snapshot is too large to be mapped: " + length + " bytes.");
+        }
+        ByteBuffer out = ByteBuffer.allocate((int)length);
+        out.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(pool.size()).putInt(classCount).putInt(interfaceCount)
+                .putInt(fieldCount).putInt(methodCount).putInt(exceptionCount).putInt(innerClassCount)
+                .putInt(id(ids, snapshot.getOrigin())).putLong(snapshot.getOriginCrc());
+        int offset = 0;
+        for (byte[] string : pool) {
+            out.putInt(offset);
+            offset += string.length;
+        }
+        out.putInt(offset);
+
+        int classes = out.position();
+        int interfaces = classes + (CLASS_RECORD + 4) * classCount;
+        int fields = interfaces + 4 * interfaceCount;
+        int methods = fields + FIELD_RECORD * fieldCount;
+        int exceptions = methods + METHOD_RECORD * methodCount;
+        int innerClasses = exceptions + 4 * exceptionCount;
+        int interfaceIndex = 0;
+        int fieldIndex = 0;
+        int methodIndex = 0;
+        int exceptionIndex = 0;
+        int innerClassIndex = 0;
+        Integer[] order = new Integer[classCount];
+        final int[] nameIds = new int[classCount];
+        for (int i = 0; i < classCount; i++) {
+            ClassData clazz = snapshot.get(i);
+            out.position(classes + CLASS_RECORD * i);
+            out.putInt(id(ids, clazz.getName())).putInt(clazz.getAccess()).putInt(id(ids, clazz.getSignature()))
+                    .putInt(id(ids, clazz.getSuperName())).putInt(clazz.getVersion()).putInt(id(ids, clazz.getSource()))
+                    .putInt(id(ids, snapshot.getPath(i)));
+            out.putInt(interfaceIndex).putInt(interfaceIndex + clazz.getInterfaces().size());
+            out.putInt(fieldIndex).putInt(fieldIndex + clazz.getFields().size());
+            out.putInt(methodIndex).putInt(methodIndex + clazz.getMethods().size());
+            out.putInt(innerClassIndex).putInt(innerClassIndex + clazz.getInnerClasses().size());
+            ClassChecksum checksum = snapshot.getChecksum(i);
+            out.putLong(checksum.getSize()).putLong(checksum.getCrc()).putLong(snapshot.getFingerprint(i));
+            order[i] = i;
+            nameIds[i] = id(ids, clazz.getName());
+
+            for (String iface : clazz.getInterfaces()) {
+                out.putInt(interfaces + 4 * interfaceIndex++, id(ids, iface));
+            }
+            for (FieldData field : clazz.getFields()) {
+                out.position(fields + FIELD_RECORD * fieldIndex++);
+                out.putInt(id(ids, field.getName())).putInt(field.getAccess()).putInt(id(ids, field.getDescriptor()))
+                        .putInt(id(ids, field.getSignature()));
+                putValue(out, ids, field.getValue());
+            }
+            for (MethodData method : clazz.getMethods()) {
+                out.position(methods + METHOD_RECORD * methodIndex++);
+                out.putInt(id(ids, method.getName())).putInt(method.getAccess()).putInt(id(ids, method.getDescriptor()))
+                        .putInt(id(ids, method.getSignature())).putInt(method.getLineNumber());
+                out.putInt(exceptionIndex).putInt(exceptionIndex + method.getExceptions().size());
+                for (String exception : method.getExceptions()) {
+                    out.putInt(exceptions + 4 * exceptionIndex++, id(ids, exception));
+                }
+            }
+            for (InnerClassData innerClass : clazz.getInnerClasses()) {
+                out.position(innerClasses + INNER_CLASS_RECORD * innerClassIndex++);
+                out.putInt(id(ids, innerClass.getName())).putInt(innerClass.getAccess())
+                        .putInt(id(ids, innerClass.getOuterName())).putInt(id(ids, innerClass.getInnerName()));
+            }
+        }
+
+        // the class index, a stable sort keeping the classes of a name in order.
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return nameIds[a] < nameIds[b] ? -1 : (nameIds[a] == nameIds[b] ? 0 : 1);
+            }
+        });
+        out.position(classes + CLASS_RECORD * classCount);
+        for (Integer index : order) {
+            out.putInt(index);
+        }
+        out.position(innerClasses + INNER_CLASS_RECORD * innerClassCount);
+        for (byte[] string : pool) {
+            out.put(string);
+        }
+
+        out.flip();
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            FileChannel channel = stream.getChannel();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static int id(Map<String, Integer> ids, String string) {
+        return string == null ? NO_STRING : ids.get(string);
+    }
+
+    private static void putValue(ByteBuffer out, Map<String, Integer> ids, Object value) throws IOException {
+        if (value == null) {
+            out.putInt(0).putLong(0);
+        } else if (value instanceof Integer) {
+            out.putInt(1).putLong((Integer)value);
+        } else if (value instanceof Long) {
+            out.putInt(2).putLong((Long)value);
+        } else if (value instanceof Float) {
+            out.putInt(3).putLong(Float.floatToRawIntBits((Float)value));
+        } else if (value instanceof Double) {
+            out.putInt(4).putLong(Double.doubleToRawLongBits((Double)value));
+        } else if (value instanceof String) {
+            out.putInt(5).putLong(id(ids, (String)value));
+        } else {
+            throw new IOException("Unsupported constant value " + value + ".");
+        }
+    }
+}
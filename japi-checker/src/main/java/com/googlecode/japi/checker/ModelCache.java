@@ -0,0 +1,237 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.googlecode.japi.checker.model.ClassData;
+import com.googlecode.japi.checker.model.FieldData;
+import com.googlecode.japi.checker.model.InnerClassData;
+import com.googlecode.japi.checker.model.MethodData;
+import com.googlecode.japi.checker.utils.SymbolTable;
+
+/**
+ * Hash-conses the classes of the models of several loaded versions: a class
+ * with the same API as one already interned is replaced by the shared
+ * instance as soon as parsed, so the memory grows with the API churn rather
+ * than with the number of versions. Classes are looked up by a fingerprint of
+ * their API, then compared member by member. Line numbers are not part of the
+ * API, so the classes are parsed without them and the line numbers of the
+ * reported methods are resolved on copies.
+ *
+ * Members refer to their class, so classes are shared as a whole, while their
+ * strings are shared through the symbol table of the cache. The cache holds
+ * a bounded number of classes, evicting the least recently used ones.
+ */
+public class ModelCache {
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final int DEFAULT_CAPACITY = 100000;
+
+    private final int capacity;
+    private SymbolTable symbols = new SymbolTable();
+    // interned classes by fingerprint, several for colliding fingerprints, in access order.
+    private final Map<Long, List<ClassData>> classes = new LinkedHashMap<Long, List<ClassData>>(16, 0.75f, true);
+    private int size;
+    private long hitCount;
+
+    public ModelCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the maximum number of classes to keep.
+     */
+    public ModelCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the symbol table to build the classes with, so their strings are shared too.
+     */
+    public synchronized SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * @param clazz a class, which must not be modified afterwards.
+     * @return the interned class with the same API, or the class itself
+     *         which is then interned if built with the symbols of the cache.
+     */
+    public synchronized ClassData intern(ClassData clazz) {
+        if (clazz.getSymbols() != symbols) {
+            // its symbols could not be compared by id with the ones of the cache.
+            return clazz;
+        }
+        Long fingerprint = fingerprint(clazz);
+        List<ClassData> candidates = classes.get(fingerprint);
+        if (candidates != null) {
+            for (ClassData candidate : candidates) {
+                if (isSame(candidate, clazz)) {
+                    hitCount++;
+                    return candidate;
+                }
+            }
+            candidates.add(clazz);
+            size++;
+        } else {
+            candidates = new ArrayList<ClassData>(1);
+            candidates.add(clazz);
+            size++;
+            classes.put(fingerprint, candidates);
+        }
+        evict();
+        return clazz;
+    }
+
+    /**
+     * Evicts the least recently used buckets until the cache fits its capacity,
+     * the classes of a bucket sharing a fingerprint being evicted together.
+     */
+    private void evict() {
+        Iterator<List<ClassData>> it = classes.values().iterator();
+        while (size > capacity && it.hasNext()) {
+            size -= it.next().size();
+            it.remove();
+        }
+    }
+
+    /**
+     * @return the number of distinct interned classes.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of classes replaced by an interned one.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Releases the interned classes and the symbols, the classes built
+     * afterwards using a new symbol table.
+     */
+    public synchronized void clear() {
+        classes.clear();
+        symbols = new SymbolTable();
+        size = 0;
+        hitCount = 0;
+    }
+
+    private static long fingerprint(ClassData clazz) {
+        long hash = FNV_OFFSET;
+        hash = mix(hash, clazz.getAccess());
+        hash = mix(hash, clazz.getName());
+        hash = mix(hash, clazz.getSignature());
+        hash = mix(hash, clazz.getSuperName());
+        for (String iface : clazz.getInterfaces()) {
+            hash = mix(hash, iface);
+        }
+        hash = mix(hash, clazz.getVersion());
+        hash = mix(hash, clazz.getSource());
+        for (FieldData field : clazz.getFields()) {
+            hash = mix(hash, field.getAccess());
+            hash = mix(hash, field.getName());
+            hash = mix(hash, field.getDescriptor());
+            hash = mix(hash, field.getSignature());
+            hash = mix(hash, field.getValue() == null ? 0 : field.getValue().hashCode());
+        }
+        for (MethodData method : clazz.getMethods()) {
+            hash = mix(hash, method.getAccess());
+            hash = mix(hash, method.getName());
+            hash = mix(hash, method.getDescriptor());
+            hash = mix(hash, method.getSignature());
+            for (String exception : method.getExceptions()) {
+                hash = mix(hash, exception);
+            }
+        }
+        for (InnerClassData innerClass : clazz.getInnerClasses()) {
+            hash = mix(hash, innerClass.getAccess());
+            hash = mix(hash, innerClass.getName());
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, int value) {
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+    private static long mix(long hash, String value) {
+        return mix(hash, value == null ? 0 : value.hashCode());
+    }
+
+    private static boolean isSame(ClassData clazz, ClassData other) {
+        if (clazz.getAccess() != other.getAccess() || clazz.getVersion() != other.getVersion()
+                || !equal(clazz.getName(), other.getName()) || !equal(clazz.getSignature(), other.getSignature())
+                || !equal(clazz.getSuperName(), other.getSuperName()) || !clazz.getInterfaces().equals(other.getInterfaces())
+                || !equal(clazz.getSource(), other.getSource())
+                || clazz.getFields().size() != other.getFields().size()
+                || clazz.getMethods().size() != other.getMethods().size()
+                || clazz.getInnerClasses().size() != other.getInnerClasses().size()
+                || clazz.getAttributes().size() != other.getAttributes().size()) {
+            return false;
+        }
+        for (int i = 0; i < clazz.getFields().size(); i++) {
+            FieldData field = clazz.getFields().get(i);
+            FieldData otherField = other.getFields().get(i);
+            if (field.getAccess() != otherField.getAccess() || !equal(field.getName(), otherField.getName())
+                    || !equal(field.getDescriptor(), otherField.getDescriptor())
+                    || !equal(field.getSignature(), otherField.getSignature())
+                    || !equal(field.getValue(), otherField.getValue())) {
+                return false;
+            }
+        }
+        for (int i = 0; i < clazz.getMethods().size(); i++) {
+            MethodData method = clazz.getMethods().get(i);
+            MethodData otherMethod = other.getMethods().get(i);
+            if (method.getAccess() != otherMethod.getAccess() || !equal(method.getName(), otherMethod.getName())
+                    || !equal(method.getDescriptor(), otherMethod.getDescriptor())
+                    || !equal(method.getSignature(), otherMethod.getSignature())
+                    || !method.getExceptions().equals(otherMethod.getExceptions())) {
+                return false;
+            }
+        }
+        for (int i = 0; i < clazz.getInnerClasses().size(); i++) {
+            InnerClassData innerClass = clazz.getInnerClasses().get(i);
+            InnerClassData otherInnerClass = other.getInnerClasses().get(i);
+            if (innerClass.getAccess() != otherInnerClass.getAccess() || !equal(innerClass.getName(), otherInnerClass.getName())
+                    || !equal(innerClass.getOuterName(), otherInnerClass.getOuterName())
+                    || !equal(innerClass.getInnerName(), otherInnerClass.getInnerName())) {
+                return false;
+            }
+        }
+        for (int i = 0; i < clazz.getAttributes().size(); i++) {
+            if (!equal(clazz.getAttributes().get(i).getName(), other.getAttributes().get(i).getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.objectweb.asm.ClassReader;
+
+import com.googlecode.japi.checker.model.ClassData;
+import com.googlecode.japi.checker.model.PackedModel;
+import com.googlecode.japi.checker.utils.ClassFingerprint;
+import com.googlecode.japi.checker.utils.SymbolTable;
+
+/**
+ * A snapshot holding the {@link PackedModel} of the classes, parsed with
+ * every facet, line numbers included, and stored in a compact binary form.
+ * Loading it only reads int tables and the symbols, nothing is parsed.
+ */
+public class PackedApiSnapshot implements ApiSnapshot {
+    private static final int MAGIC = 0x4A415053; // JAPS
+    private static final int FORMAT_VERSION = 2;
+
+    private final PackedModel model;
+    private String origin;
+    private long originCrc = -1;
+    // by class index in the model.
+    private String[] paths;
+    private long[] sizes;
+    private long[] crcs;
+    private long[] fingerprints;
+
+    private PackedApiSnapshot(PackedModel model, String[] paths, long[] sizes, long[] crcs, long[] fingerprints) {
+        this.model = model;
+        this.paths = paths;
+        this.sizes = sizes;
+        this.crcs = crcs;
+        this.fingerprints = fingerprints;
+    }
+
+    /**
+     * Creates an empty snapshot, filled with {@link #add(ClassData, String, ClassChecksum, long)}.
+     */
+    PackedApiSnapshot() {
+        this(new PackedModel(new SymbolTable()), new String[64], new long[64], new long[64], new long[64]);
+    }
+
+    /**
+     * Parses the classes of a source into a snapshot.
+     * @param source the source of the classes.
+     * @param filter the classes to include.
+     * @return the snapshot.
+     * @throws IOException if the source cannot be read, or holds an invalid class.
+     */
+    public static PackedApiSnapshot build(ClassBytesSource source, ClassBytesSource.Filter filter) throws IOException {
+        SymbolTable symbols = new SymbolTable();
+        final PackedModel model = new PackedModel(symbols);
+        final ClassDumper dumper = new ClassDumper(EnumSet.allOf(Facet.class), symbols);
+        final PackedApiSnapshot snapshot = new PackedApiSnapshot(model, new String[64], new long[64], new long[64], new long[64]);
+        source.read(filter, new ClassBytesSource.Handler() {
+            public void handle(String path, ByteBuffer content) throws IOException {
+                byte[] bytes = new byte[content.remaining()];
+                content.duplicate().get(bytes);
+                long fingerprint;
+                try {
+                    fingerprint = ClassFingerprint.compute(bytes, 0, bytes.length);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid class " + path + ": " + e.getMessage());
+                }
+                ClassReader cr = new ClassReader(bytes);
+                cr.accept(dumper, dumper.getParsingOptions());
+                ClassData clazz = dumper.remove(cr.getClassName());
+                snapshot.add(model.add(clazz), path, bytes.length, ClassChecksum.crc(bytes, 0, bytes.length), fingerprint);
+            }
+        });
+        snapshot.trim();
+        return snapshot;
+    }
+
+    /**
+     * Appends a class, then {@link #trim()} ends the filling.
+     */
+    void add(ClassData clazz, String path, ClassChecksum checksum, long fingerprint) throws IOException {
+        add(model.add(clazz), path, checksum.getSize(), checksum.getCrc(), fingerprint);
+    }
+
+    private void add(int index, String path, long size, long crc, long fingerprint) {
+        if (index == paths.length) {
+            int capacity = paths.length * 2;
+            paths = Arrays.copyOf(paths, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            crcs = Arrays.copyOf(crcs, capacity);
+            fingerprints = Arrays.copyOf(fingerprints, capacity);
+        }
+        paths[index] = path;
+        sizes[index] = size;
+        crcs[index] = crc;
+        fingerprints[index] = fingerprint;
+    }
+
+    void trim() {
+        int size = model.size();
+        paths = Arrays.copyOf(paths, size);
+        sizes = Arrays.copyOf(sizes, size);
+        crcs = Arrays.copyOf(crcs, size);
+        fingerprints = Arrays.copyOf(fingerprints, size);
+    }
+
+    /**
+     * Records the artifact the snapshot has been built from, so a stale
+     * snapshot can be told apart.
+     * @param origin a description of the artifact, e.g. its coordinates.
+     * @param originCrc the CRC-32 of the artifact, or -1 if unknown.
+     */
+    public void setOrigin(String origin, long originCrc) {
+        this.origin = origin;
+        this.originCrc = originCrc;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    public long getOriginCrc() {
+        return originCrc;
+    }
+
+    /**
+     * @return the model of the classes, whose symbol table is extended by the one of the new classes during a check.
+     */
+    public PackedModel getModel() {
+        return model;
+    }
+
+    public SymbolTable getSymbols() {
+        return model.getSymbols();
+    }
+
+    public int size() {
+        return model.size();
+    }
+
+    public String getName(int index) {
+        return model.getSymbols().get(model.getNameId(index));
+    }
+
+    public int indexOf(String name) {
+        return model.indexOf(model.getSymbols().lookup(name));
+    }
+
+    public int getAccess(int index) {
+        return model.getAccess(index);
+    }
+
+    public ClassData get(int index) {
+        return model.get(index);
+    }
+
+    public String getPath(int index) {
+        return paths[index];
+    }
+
+    public ClassChecksum getChecksum(int index) {
+        return new ClassChecksum(sizes[index], crcs[index]);
+    }
+
+    public long getFingerprint(int index) {
+        return fingerprints[index];
+    }
+
+    public ApiTree getApiTree(ClassBytesSource.Filter filter) {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (int i = 0; i < paths.length; i++) {
+            if (filter.accept(paths[i])) {
+                result.put(paths[i], fingerprints[i]);
+            }
+        }
+        return new ApiTree(result);
+    }
+
+    public void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeBoolean(origin != null);
+            if (origin != null) {
+                out.writeUTF(origin);
+            }
+            out.writeLong(originCrc);
+            model.write(out);
+            for (int i = 0; i < paths.length; i++) {
+                out.writeUTF(paths[i]);
+                out.writeLong(sizes[i]);
+                out.writeLong(crcs[i]);
+                out.writeLong(fingerprints[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @param file a file written by {@link #write(File)}.
+     * @return the snapshot.
+     * @throws IOException if the file cannot be read, or is not a valid snapshot.
+     */
+    public static PackedApiSnapshot read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException(file + " is not an API snapshot.");
+            }
+            String origin = in.readBoolean() ? in.readUTF() : null;
+            long originCrc = in.readLong();
+            PackedModel model = PackedModel.read(in);
+            int size = model.size();
+            PackedApiSnapshot snapshot = new PackedApiSnapshot(model, new String[size], new long[size], new long[size], new long[size]);
+            for (int i = 0; i < size; i++) {
+                snapshot.add(i, in.readUTF(), in.readLong(), in.readLong(), in.readLong());
+            }
+            snapshot.setOrigin(origin, originCrc);
+            return snapshot;
+        } finally {
+            in.close();
+        }
+    }
+}
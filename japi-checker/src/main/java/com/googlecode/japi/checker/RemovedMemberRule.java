@@ -0,0 +1,35 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker;
+
+import com.googlecode.japi.checker.model.ClassData;
+import com.googlecode.japi.checker.model.JavaItem;
+
+/**
+ * A rule reporting the members removed from a class. On a class pair it
+ * looks for the removed members itself, but when the members have already
+ * been diffed, as by the {@link com.googlecode.japi.checker.diff.RuleDiffListener},
+ * it is only told about each removed member and not run on the class pair.
+ */
+public interface RemovedMemberRule extends Rule {
+
+    /**
+     * @param reporter the reporter of the incompatibilities.
+     * @param referenceMember a member of the reference class, not found in the new class.
+     * @param newClass the new version of the class.
+     */
+    void checkRemovedMember(Reporter reporter, JavaItem referenceMember, ClassData newClass);
+}
@@ -0,0 +1,508 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.googlecode.japi.checker.model.ClassData;
+import com.googlecode.japi.checker.model.FieldData;
+import com.googlecode.japi.checker.model.InnerClassData;
+import com.googlecode.japi.checker.model.MethodData;
+import com.googlecode.japi.checker.model.PackedModel;
+import com.googlecode.japi.checker.utils.SymbolTable;
+
+/**
+ * Stores the snapshots of the successive versions of an artifact in a
+ * directory. Every few versions a full checkpoint is written, as a
+ * {@link PackedApiSnapshot}, the other versions are stored as a delta
+ * against their predecessor: the removed classes, then the added and changed
+ * ones, a changed class only holding its header and its removed, added and
+ * changed members. Loading a version reads its nearest checkpoint and applies
+ * the following deltas.
+ *
+ * The directory holds a 'versions' file listing the versions in the order
+ * they have been added, a 'checkpoint-interval' file holding the number of
+ * versions between two checkpoints, and a '&lt;index&gt;.japs' checkpoint or
+ * '&lt;index&gt;.japd' delta file per version.
+ */
+public class SnapshotStore {
+    /** The default number of versions between two checkpoints. */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 16;
+    private static final String VERSIONS = "versions";
+    private static final String CHECKPOINT_INTERVAL = "checkpoint-interval";
+    private static final String CHECKPOINT_EXTENSION = ".japs";
+    private static final String DELTA_EXTENSION = ".japd";
+    private static final int DELTA_MAGIC = 0x4A415044; // JAPD
+    private static final int DELTA_VERSION = 1;
+    // member kinds
+    private static final int FIELD = 0;
+    private static final int METHOD = 1;
+    private static final int INNER_CLASS = 2;
+
+    private final File directory;
+    private final int checkpointInterval;
+
+    /**
+     * @param directory the directory of the store, created by the first added version.
+     */
+    public SnapshotStore(File directory) {
+        this(directory, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * @param directory the directory of the store, created by the first added version.
+     * @param checkpointInterval the number of versions between two checkpoints, 1 to only store checkpoints.
+     *        An existing store keeps the interval it has been created with.
+     */
+    public SnapshotStore(File directory, int checkpointInterval) {
+        if (checkpointInterval < 1) {
+            throw new IllegalArgumentException("The checkpoint interval must be at least 1.");
+        }
+        this.directory = directory;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * @return the stored versions, in the order they have been added.
+     * @throws IOException if the list of versions cannot be read.
+     */
+    public List<String> getVersions() throws IOException {
+        List<String> versions = new ArrayList<String>();
+        File file = new File(directory, VERSIONS);
+        if (!file.isFile()) {
+            return versions;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0) {
+                    versions.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return versions;
+    }
+
+    /**
+     * @param version a version.
+     * @return true if the version is stored.
+     * @throws IOException if the list of versions cannot be read.
+     */
+    public boolean contains(String version) throws IOException {
+        return getVersions().contains(version);
+    }
+
+    /**
+     * Stores the snapshot of a new version, as a delta against the last stored
+     * version unless a checkpoint is due.
+     * @param version the version, which must not be stored yet.
+     * @param snapshot the snapshot of the version.
+     * @throws IOException if the store cannot be read or written.
+     */
+    public void add(String version, ApiSnapshot snapshot) throws IOException {
+        if (version.length() == 0 || version.indexOf('\n') >= 0 || version.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Invalid version '" + version + "'.");
+        }
+        List<String> versions = getVersions();
+        if (versions.contains(version)) {
+            throw new IllegalArgumentException("The version " + version + " is already stored.");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the directory " + directory + ".");
+        }
+        int index = versions.size();
+        int checkpointInterval = getCheckpointInterval();
+        if (!new File(directory, CHECKPOINT_INTERVAL).isFile()) {
+            writeCheckpointInterval(checkpointInterval);
+        }
+        if (index % checkpointInterval == 0) {
+            toPacked(snapshot).write(getFile(index, CHECKPOINT_EXTENSION));
+        } else {
+            writeDelta(load(index - 1), snapshot, getFile(index, DELTA_EXTENSION));
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(new File(directory, VERSIONS), true), "UTF-8");
+        try {
+            writer.write(version);
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Reconstructs the snapshot of a version from its nearest checkpoint.
+     * @param version a stored version.
+     * @return the snapshot of the version.
+     * @throws IOException if the store cannot be read.
+     * @throws IllegalArgumentException if the version is not stored.
+     */
+    public PackedApiSnapshot load(String version) throws IOException {
+        int index = getVersions().indexOf(version);
+        if (index < 0) {
+            throw new IllegalArgumentException("The version " + version + " is not stored.");
+        }
+        return load(index);
+    }
+
+    private PackedApiSnapshot load(int index) throws IOException {
+        int checkpoint = index - index % getCheckpointInterval();
+        PackedApiSnapshot base = PackedApiSnapshot.read(getFile(checkpoint, CHECKPOINT_EXTENSION));
+        if (checkpoint == index) {
+            return base;
+        }
+        // classes by path, only materialized when a delta changes them.
+        Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        for (int i = 0; i < base.size(); i++) {
+            entries.put(base.getPath(i), new Entry(base, i));
+        }
+        SymbolTable symbols = new SymbolTable();
+        for (int i = checkpoint + 1; i <= index; i++) {
+            applyDelta(getFile(i, DELTA_EXTENSION), entries, symbols);
+        }
+        PackedApiSnapshot snapshot = new PackedApiSnapshot();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry value = entry.getValue();
+            snapshot.add(value.getClassData(), entry.getKey(), value.checksum, value.fingerprint);
+        }
+        snapshot.trim();
+        return snapshot;
+    }
+
+    /**
+     * @return the number of versions between two checkpoints, as recorded by
+     *         the store, or as configured for a new store.
+     * @throws IOException if the recorded interval cannot be read.
+     */
+    public int getCheckpointInterval() throws IOException {
+        File file = new File(directory, CHECKPOINT_INTERVAL);
+        if (!file.isFile()) {
+            return checkpointInterval;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line = reader.readLine();
+            int interval = line == null ? 0 : Integer.parseInt(line.trim());
+            if (interval < 1) {
+                throw new IOException("Invalid checkpoint interval in " + file + ".");
+            }
+            return interval;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid checkpoint interval in " + file + ".", e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void writeCheckpointInterval(int interval) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(new File(directory, CHECKPOINT_INTERVAL)), "UTF-8");
+        try {
+            writer.write(Integer.toString(interval));
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+    }
+
+    private File getFile(int index, String extension) {
+        return new File(directory, index + extension);
+    }
+
+    private static PackedApiSnapshot toPacked(ApiSnapshot snapshot) throws IOException {
+        if (snapshot instanceof PackedApiSnapshot) {
+            return (PackedApiSnapshot)snapshot;
+        }
+        PackedApiSnapshot packed = new PackedApiSnapshot();
+        for (int i = 0; i < snapshot.size(); i++) {
+            packed.add(snapshot.get(i), snapshot.getPath(i), snapshot.getChecksum(i), snapshot.getFingerprint(i));
+        }
+        packed.trim();
+        return packed;
+    }
+
+    private static void writeDelta(ApiSnapshot previous, ApiSnapshot next, File file) throws IOException {
+        Map<String, Integer> previousPaths = new HashMap<String, Integer>();
+        for (int i = 0; i < previous.size(); i++) {
+            previousPaths.put(previous.getPath(i), i);
+        }
+        Set<String> nextPaths = new HashSet<String>();
+        List<Integer> puts = new ArrayList<Integer>();
+        for (int j = 0; j < next.size(); j++) {
+            Integer i = previousPaths.get(next.getPath(j));
+            nextPaths.add(next.getPath(j));
+            if (i == null || !previous.getChecksum(i).matches(next.getChecksum(j))) {
+                puts.add(j);
+            }
+        }
+        List<String> removed = new ArrayList<String>();
+        for (int i = 0; i < previous.size(); i++) {
+            if (!nextPaths.contains(previous.getPath(i))) {
+                removed.add(previous.getPath(i));
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        try {
+            out.writeInt(DELTA_MAGIC);
+            out.writeInt(DELTA_VERSION);
+            out.writeInt(removed.size());
+            for (String path : removed) {
+                out.writeUTF(path);
+            }
+            out.writeInt(puts.size());
+            for (int j : puts) {
+                String path = next.getPath(j);
+                Integer i = previousPaths.get(path);
+                ClassData clazz = next.get(j);
+                out.writeUTF(path);
+                out.writeLong(next.getChecksum(j).getSize());
+                out.writeLong(next.getChecksum(j).getCrc());
+                out.writeLong(next.getFingerprint(j));
+                writeHeader(out, clazz);
+                Map<String, byte[]> previousMembers = i == null ? new HashMap<String, byte[]>() : encodeMembers(previous.get(i));
+                Map<String, byte[]> members = encodeMembers(clazz);
+                List<String> removedMembers = new ArrayList<String>();
+                for (String key : previousMembers.keySet()) {
+                    if (!members.containsKey(key)) {
+                        removedMembers.add(key);
+                    }
+                }
+                Map<String, byte[]> changedMembers = new LinkedHashMap<String, byte[]>();
+                for (Map.Entry<String, byte[]> member : members.entrySet()) {
+                    if (!Arrays.equals(member.getValue(), previousMembers.get(member.getKey()))) {
+                        changedMembers.put(member.getKey(), member.getValue());
+                    }
+                }
+                out.writeInt(removedMembers.size());
+                for (String key : removedMembers) {
+                    out.writeUTF(key);
+                }
+                out.writeInt(changedMembers.size());
+                for (Map.Entry<String, byte[]> member : changedMembers.entrySet()) {
+                    out.writeUTF(member.getKey());
+                    out.writeInt(member.getValue().length);
+                    out.write(member.getValue());
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void applyDelta(File file, Map<String, Entry> entries, SymbolTable symbols) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try {
+            if (in.readInt() != DELTA_MAGIC || in.readInt() != DELTA_VERSION) {
+                throw new IOException(file + " is not an API snapshot delta.");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                entries.remove(in.readUTF());
+            }
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                ClassChecksum checksum = new ClassChecksum(in.readLong(), in.readLong());
+                long fingerprint = in.readLong();
+                ClassData clazz = readHeader(in, symbols);
+                Entry previous = entries.get(path);
+                Map<String, byte[]> members = previous == null ? new LinkedHashMap<String, byte[]>()
+                        : encodeMembers(previous.getClassData());
+                int memberCount = in.readInt();
+                for (int j = 0; j < memberCount; j++) {
+                    members.remove(in.readUTF());
+                }
+                memberCount = in.readInt();
+                for (int j = 0; j < memberCount; j++) {
+                    String key = in.readUTF();
+                    byte[] member = new byte[in.readInt()];
+                    in.readFully(member);
+                    members.put(key, member);
+                }
+                for (byte[] member : members.values()) {
+                    decodeMember(member, clazz);
+                }
+                entries.put(path, new Entry(clazz.freeze(), checksum, fingerprint));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out, ClassData clazz) throws IOException {
+        out.writeInt(clazz.getAccess());
+        out.writeUTF(clazz.getName());
+        writeString(out, clazz.getSignature());
+        writeString(out, clazz.getSuperName());
+        out.writeInt(clazz.getInterfaces().size());
+        for (String iface : clazz.getInterfaces()) {
+            out.writeUTF(iface);
+        }
+        out.writeInt(clazz.getVersion());
+        writeString(out, clazz.getSource());
+    }
+
+    private static ClassData readHeader(DataInputStream in, SymbolTable symbols) throws IOException {
+        int access = in.readInt();
+        String name = in.readUTF();
+        String signature = readString(in);
+        String superName = readString(in);
+        String[] interfaces = new String[in.readInt()];
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaces[i] = in.readUTF();
+        }
+        int version = in.readInt();
+        return new ClassData(symbols, null, access, name, signature, superName, interfaces, version, readString(in));
+    }
+
+    /**
+     * Encodes the members of a class by key, so they can be compared as bytes.
+     */
+    private static Map<String, byte[]> encodeMembers(ClassData clazz) throws IOException {
+        Map<String, byte[]> members = new LinkedHashMap<String, byte[]>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (FieldData field : clazz.getFields()) {
+            bytes.reset();
+            out.writeByte(FIELD);
+            out.writeInt(field.getAccess());
+            out.writeUTF(field.getName());
+            out.writeUTF(field.getDescriptor());
+            writeString(out, field.getSignature());
+            PackedModel.writeValue(out, field.getValue());
+            members.put("f" + field.getName() + field.getDescriptor(), bytes.toByteArray());
+        }
+        for (MethodData method : clazz.getMethods()) {
+            bytes.reset();
+            out.writeByte(METHOD);
+            out.writeInt(method.getAccess());
+            out.writeUTF(method.getName());
+            out.writeUTF(method.getDescriptor());
+            writeString(out, method.getSignature());
+            out.writeInt(method.getExceptions().size());
+            for (String exception : method.getExceptions()) {
+                out.writeUTF(exception);
+            }
+            out.writeInt(method.getLineNumber());
+            members.put("m" + method.getName() + method.getDescriptor(), bytes.toByteArray());
+        }
+        for (InnerClassData innerClass : clazz.getInnerClasses()) {
+            bytes.reset();
+            out.writeByte(INNER_CLASS);
+            out.writeInt(innerClass.getAccess());
+            out.writeUTF(innerClass.getName());
+            writeString(out, innerClass.getOuterName());
+            writeString(out, innerClass.getInnerName());
+            members.put("i" + innerClass.getName(), bytes.toByteArray());
+        }
+        return members;
+    }
+
+    private static void decodeMember(byte[] member, ClassData clazz) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(member));
+        int kind = in.readByte();
+        int access = in.readInt();
+        String name = in.readUTF();
+        if (kind == FIELD) {
+            String descriptor = in.readUTF();
+            String signature = readString(in);
+            clazz.add(new FieldData(clazz, access, name, descriptor, signature, PackedModel.readValue(in)));
+        } else if (kind == METHOD) {
+            String descriptor = in.readUTF();
+            String signature = readString(in);
+            String[] exceptions = new String[in.readInt()];
+            for (int i = 0; i < exceptions.length; i++) {
+                exceptions[i] = in.readUTF();
+            }
+            MethodData method = new MethodData(clazz, access, name, descriptor, signature, exceptions);
+            method.setLineNumber(in.readInt());
+            clazz.add(method);
+        } else if (kind == INNER_CLASS) {
+            String outerName = readString(in);
+            clazz.add(new InnerClassData(clazz, access, name, outerName, readString(in)));
+        } else {
+            throw new IOException("Invalid member kind " + kind + ".");
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        out.writeBoolean(string != null);
+        if (string != null) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * A class of the version being reconstructed, either still in the
+     * checkpoint or rebuilt by a delta.
+     */
+    private static class Entry {
+        private final ApiSnapshot snapshot;
+        private final int index;
+        private ClassData clazz;
+        private final ClassChecksum checksum;
+        private final long fingerprint;
+
+        Entry(ApiSnapshot snapshot, int index) {
+            this.snapshot = snapshot;
+            this.index = index;
+            this.checksum = snapshot.getChecksum(index);
+            this.fingerprint = snapshot.getFingerprint(index);
+        }
+
+        Entry(ClassData clazz, ClassChecksum checksum, long fingerprint) {
+            this.snapshot = null;
+            this.index = -1;
+            this.clazz = clazz;
+            this.checksum = checksum;
+            this.fingerprint = fingerprint;
+        }
+
+        ClassData getClassData() {
+            if (clazz == null) {
+                clazz = snapshot.get(index);
+            }
+            return clazz;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker.diff;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.googlecode.japi.checker.model.ClassData;
+import com.googlecode.japi.checker.model.FieldData;
+import com.googlecode.japi.checker.model.InnerClassData;
+import com.googlecode.japi.checker.model.JavaItem;
+import com.googlecode.japi.checker.model.MethodData;
+
+/**
+ * Finds the changes between two versions of an artifact: both sides are
+ * sorted by a canonical key, then walked once in a merge-join, each step
+ * emitting an event to a {@link DiffListener}. Events therefore come in key
+ * order, whatever the order the classes were read in.
+ */
+public class DiffEngine {
+
+    private static final Comparator<JavaItem> BY_NAME = new Comparator<JavaItem>() {
+        public int compare(JavaItem item, JavaItem other) {
+            return item.getName().compareTo(other.getName());
+        }
+    };
+
+    private static final Comparator<MethodData> BY_NAME_AND_DESCRIPTOR = new Comparator<MethodData>() {
+        public int compare(MethodData method, MethodData other) {
+            int result = method.getName().compareTo(other.getName());
+            return result != 0 ? result : method.getDescriptor().compareTo(other.getDescriptor());
+        }
+    };
+
+    /**
+     * Diffs two sets of classes, and the members of the classes found in both.
+     * @param referenceClasses the classes of the reference version.
+     * @param newClasses the classes of the new version.
+     * @param listener the listener of the changes.
+     */
+    public void diff(Collection<ClassData> referenceClasses, Collection<ClassData> newClasses, DiffListener listener) {
+        join(referenceClasses, newClasses, true, listener);
+    }
+
+    /**
+     * Pairs two sets of classes without diffing their members, e.g. to diff
+     * each pair on its own thread.
+     * @param referenceClasses the classes of the reference version.
+     * @param newClasses the classes of the new version.
+     * @param listener the listener of the class events only.
+     */
+    public void pair(Collection<ClassData> referenceClasses, Collection<ClassData> newClasses, DiffListener listener) {
+        join(referenceClasses, newClasses, false, listener);
+    }
+
+    private void join(Collection<ClassData> referenceClasses, Collection<ClassData> newClasses, boolean members, DiffListener listener) {
+        List<ClassData> references = sort(referenceClasses, BY_NAME);
+        List<ClassData> news = sort(newClasses, BY_NAME);
+        int i = 0;
+        int j = 0;
+        while (i < references.size() || j < news.size()) {
+            int order = i == references.size() ? 1 : j == news.size() ? -1 : BY_NAME.compare(references.get(i), news.get(j));
+            if (order < 0) {
+                listener.classRemoved(references.get(i++));
+            } else if (order > 0) {
+                listener.classAdded(news.get(j++));
+            } else if (members) {
+                diff(references.get(i++), news.get(j++), listener);
+            } else {
+                listener.classChanged(references.get(i++), news.get(j++));
+            }
+        }
+    }
+
+    /**
+     * Diffs two versions of a class: the class pair, then its members.
+     * @param referenceClass the reference version of the class.
+     * @param newClass the new version of the class.
+     * @param listener the listener of the changes.
+     */
+    public void diff(ClassData referenceClass, ClassData newClass, DiffListener listener) {
+        listener.classChanged(referenceClass, newClass);
+        join(referenceClass, newClass, referenceClass.getFields(), newClass.getFields(), BY_NAME, listener);
+        join(referenceClass, newClass, referenceClass.getMethods(), newClass.getMethods(), BY_NAME_AND_DESCRIPTOR, listener);
+        join(referenceClass, newClass, referenceClass.getInnerClasses(), newClass.getInnerClasses(), BY_NAME, listener);
+    }
+
+    /**
+     * Merge-joins the members of a class pair. As with ClassData.findField,
+     * the reference members sharing a key, e.g. fields of the same name in
+     * obfuscated classes, are all paired with the first new member of that
+     * key, the sort being stable, and the other new members are added ones.
+     */
+    private static <T extends JavaItem> void join(ClassData referenceClass, ClassData newClass,
+            List<T> referenceMembers, List<T> newMembers, Comparator<? super T> comparator, DiffListener listener) {
+        List<T> references = sort(referenceMembers, comparator);
+        List<T> news = sort(newMembers, comparator);
+        int i = 0;
+        int j = 0;
+        while (i < references.size() || j < news.size()) {
+            int order = i == references.size() ? 1 : j == news.size() ? -1 : comparator.compare(references.get(i), news.get(j));
+            if (order < 0) {
+                listener.memberRemoved(references.get(i++), newClass);
+            } else if (order > 0) {
+                listener.memberAdded(referenceClass, news.get(j++));
+            } else {
+                T newMember = news.get(j++);
+                while (i < references.size() && comparator.compare(references.get(i), newMember) == 0) {
+                    listener.memberChanged(references.get(i++), newMember);
+                }
+                while (j < news.size() && comparator.compare(newMember, news.get(j)) == 0) {
+                    listener.memberAdded(referenceClass, news.get(j++));
+                }
+            }
+        }
+    }
+
+    private static <T> List<T> sort(Collection<T> items, Comparator<? super T> comparator) {
+        List<T> sorted = new ArrayList<T>(items);
+        Collections.sort(sorted, comparator);
+        return sorted;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker.diff;
+
+import com.googlecode.japi.checker.model.ClassData;
+import com.googlecode.japi.checker.model.JavaItem;
+
+/**
+ * Receives the changes between two versions of an artifact, as found by
+ * {@link DiffEngine}. The members of a class pair are reported right after
+ * the pair itself, fields first, then methods, then inner classes.
+ */
+public interface DiffListener {
+
+    /**
+     * @param newClass a class only found in the new version.
+     */
+    void classAdded(ClassData newClass);
+
+    /**
+     * @param referenceClass a class only found in the reference version.
+     */
+    void classRemoved(ClassData referenceClass);
+
+    /**
+     * A class found in both versions, the rules deciding whether what changed
+     * breaks compatibility.
+     * @param referenceClass the reference version of the class.
+     * @param newClass the new version of the class.
+     */
+    void classChanged(ClassData referenceClass, ClassData newClass);
+
+    /**
+     * @param referenceClass the reference version of the class.
+     * @param newMember a member only found in the new version of the class.
+     */
+    void memberAdded(ClassData referenceClass, JavaItem newMember);
+
+    /**
+     * @param referenceMember a member only found in the reference version of the class.
+     * @param newClass the new version of the class.
+     */
+    void memberRemoved(JavaItem referenceMember, ClassData newClass);
+
+    /**
+     * A member found in both versions of a class: fields are paired by name,
+     * methods by name and descriptor, inner classes by name. The reference
+     * members sharing a key are all paired with the first new member of that key.
+     * @param referenceMember the reference version of the member.
+     * @param newMember the new version of the member.
+     */
+    void memberChanged(JavaItem referenceMember, JavaItem newMember);
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker.diff;
+
+import java.util.List;
+
+import com.googlecode.japi.checker.RemovedMemberRule;
+import com.googlecode.japi.checker.Reporter;
+import com.googlecode.japi.checker.Reporter.Level;
+import com.googlecode.japi.checker.Reporter.Report;
+import com.googlecode.japi.checker.Rule;
+import com.googlecode.japi.checker.Scope;
+import com.googlecode.japi.checker.model.ClassData;
+import com.googlecode.japi.checker.model.FieldData;
+import com.googlecode.japi.checker.model.JavaItem;
+import com.googlecode.japi.checker.model.MethodData;
+
+/**
+ * Runs the rules on the pairs found by the {@link DiffEngine}: classes,
+ * fields and methods, and reports the public classes which have been removed.
+ * The {@link RemovedMemberRule}s are told about each removed member instead
+ * of being run on the class pairs.
+ */
+public class RuleDiffListener implements DiffListener {
+    private final Reporter reporter;
+    private final List<? extends Rule> rules;
+
+    public RuleDiffListener(Reporter reporter, List<? extends Rule> rules) {
+        this.reporter = reporter;
+        this.rules = rules;
+    }
+
+    public void classAdded(ClassData newClass) {
+    }
+
+    public void classRemoved(ClassData referenceClass) {
+        if (referenceClass.getVisibility() == Scope.PUBLIC) {
+            reporter.report(new Report(Level.ERROR, "Public class " + referenceClass.getName() + " has been removed.", referenceClass, null));
+        }
+    }
+
+    public void classChanged(ClassData referenceClass, ClassData newClass) {
+        for (Rule rule : rules) {
+            if (!(rule instanceof RemovedMemberRule)) {
+                rule.checkBackwardCompatibility(reporter, referenceClass, newClass);
+            }
+        }
+    }
+
+    public void memberAdded(ClassData referenceClass, JavaItem newMember) {
+    }
+
+    public void memberRemoved(JavaItem referenceMember, ClassData newClass) {
+        for (Rule rule : rules) {
+            if (rule instanceof RemovedMemberRule) {
+                ((RemovedMemberRule)rule).checkRemovedMember(reporter, referenceMember, newClass);
+            }
+        }
+    }
+
+    public void memberChanged(JavaItem referenceMember, JavaItem newMember) {
+        // as ClassData.checkBackwardCompatibility, inner classes are not checked on their own.
+        if (newMember instanceof FieldData || newMember instanceof MethodData) {
+            check(referenceMember, newMember);
+        }
+    }
+
+    private void check(JavaItem reference, JavaItem newItem) {
+        for (Rule rule : rules) {
+            rule.checkBackwardCompatibility(reporter, reference, newItem);
+        }
+    }
+}
@@ -16,82 +16,169 @@
 package com.googlecode.japi.checker.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.googlecode.japi.checker.Reporter;
 import com.googlecode.japi.checker.Rule;
+import com.googlecode.japi.checker.utils.SymbolTable;
 
+/**
+ * A class of the model. Its members are added while it is being built, then
+ * the class is frozen, e.g. once parsed, and cannot be modified anymore, so
+ * it can be shared by the rules, the threads and the checked versions.
+ */
 public class ClassData extends JavaItem {
-    private List<MethodData> methods = new ArrayList<MethodData>();
-    private List<FieldData> fields = new ArrayList<FieldData>();
-    private List<AttributeData> attributes = new ArrayList<AttributeData>();
-    private List<InnerClassData> innerClasses = new ArrayList<InnerClassData>();
-    private String signature;
-    private String superName;
-    private List<String> interfaces = new ArrayList<String>();
-    private int version;
-    private String source;
+    private final ArrayList<MethodData> methods = new ArrayList<MethodData>();
+    private final ArrayList<FieldData> fields = new ArrayList<FieldData>();
+    private final ArrayList<AttributeData> attributes = new ArrayList<AttributeData>();
+    private final ArrayList<InnerClassData> innerClasses = new ArrayList<InnerClassData>();
+    private final String signature;
+    private final String superName;
+    private final List<String> interfaces;
+    private final int version;
+    private final String source;
+    private final Indexes indexes = new Indexes();
 
+    /**
+     * Builds a class with its own symbol table, unless it is nested in an
+     * owner, so its symbols are released along with it. Classes to compare
+     * by id must be built with a shared table.
+     */
     public ClassData(ClassData owner, int access, String name, String signature, String superName, String[] interfaces, int version) {
-        super(owner, access, name);
-        this.setSignature(signature);
-        this.superName = superName;
-        Collections.addAll(this.interfaces, interfaces);
+        this(owner == null ? new SymbolTable() : owner.getSymbols(), owner, access, name, signature, superName, interfaces, version, null);
+    }
+
+    /**
+     * @param symbols the symbol table shared by the classes to compare.
+     */
+    public ClassData(SymbolTable symbols, ClassData owner, int access, String name, String signature, String superName, String[] interfaces, int version) {
+        this(symbols, owner, access, name, signature, superName, interfaces, version, null);
+    }
+
+    /**
+     * @param symbols the symbol table shared by the classes to compare.
+     * @param source the name of the source file, possibly null.
+     */
+    public ClassData(SymbolTable symbols, ClassData owner, int access, String name, String signature, String superName, String[] interfaces, int version, String source) {
+        super(symbols, owner, access, name);
+        this.signature = toSymbol(signature);
+        this.superName = toSymbol(superName);
+        if (interfaces.length == 0) {
+            this.interfaces = Collections.emptyList();
+        } else {
+            String[] interfaceSymbols = new String[interfaces.length];
+            for (int i = 0; i < interfaces.length; i++) {
+                interfaceSymbols[i] = toSymbol(interfaces[i]);
+            }
+            this.interfaces = Collections.unmodifiableList(Arrays.asList(interfaceSymbols));
+        }
         this.version = version;
+        this.source = toSymbol(source);
     }
     
     public void add(MethodData method) {
+        checkNotFrozen();
         methods.add(method);
+        indexes.methods = null;
     }
     
     public void add(AttributeData attribute) {
+        checkNotFrozen();
         attributes.add(attribute);
     }
     
     public void add(FieldData field) {
+        checkNotFrozen();
         fields.add(field);
+        indexes.fields = null;
     }
     
     public void checkBackwardCompatibility(Reporter reporter, ClassData clazz, List<Rule> rules) {
         for (FieldData oldField : clazz.fields) {
-            for (FieldData newField: this.fields) {
-                if (oldField.isSame(newField)) {
-                    newField.checkBackwardCompatibility(reporter, oldField, rules);
-                    for (Rule rule : rules) {
-                        rule.checkBackwardCompatibility(reporter, oldField, newField);
-                    }
-                    break;
+            FieldData newField = findField(oldField.getName());
+            if (newField != null) {
+                newField.checkBackwardCompatibility(reporter, oldField, rules);
+                for (Rule rule : rules) {
+                    rule.checkBackwardCompatibility(reporter, oldField, newField);
                 }
             }
         }
         for (MethodData oldMethod : clazz.methods) {
-            boolean found = false;
-            for (MethodData newMethod: this.methods) {
-                if (oldMethod.isSame(newMethod)) {
-                    newMethod.checkBackwardCompatibility(reporter, oldMethod, rules);
-                    for (Rule rule : rules) {
-                        rule.checkBackwardCompatibility(reporter, oldMethod, newMethod);
-                    }
-                    found = true;
-                    break;
+            MethodData newMethod = findMethod(oldMethod.getName(), oldMethod.getDescriptor());
+            if (newMethod != null) {
+                newMethod.checkBackwardCompatibility(reporter, oldMethod, rules);
+                for (Rule rule : rules) {
+                    rule.checkBackwardCompatibility(reporter, oldMethod, newMethod);
                 }
             }
         }
     }
 
-    public boolean isSame(ClassData newClazz) {
-        return this.getName().equals(newClazz.getName());
+    /**
+     * @param name the name of the method.
+     * @param descriptor the descriptor of the method, e.g. '(I)V'.
+     * @return the method, or null if the class does not declare it.
+     */
+    public MethodData findMethod(String name, String descriptor) {
+        Map<String, MethodData> index = indexes.methods;
+        if (index == null) {
+            index = new HashMap<String, MethodData>(methods.size() * 2);
+            for (MethodData method : methods) {
+                String key = method.getName() + method.getDescriptor();
+                if (!index.containsKey(key)) {
+                    index.put(key, method);
+                }
+            }
+            indexes.methods = index;
+        }
+        return index.get(name + descriptor);
     }
-    
 
     /**
-     * @param signature the signature to set
+     * @param name the name of the field.
+     * @return the field, the first one declared if several share the name, or null.
      */
-    protected void setSignature(String signature) {
-        this.signature = signature;
+    public FieldData findField(String name) {
+        Map<String, FieldData> index = indexes.fields;
+        if (index == null) {
+            index = new HashMap<String, FieldData>(fields.size() * 2);
+            for (FieldData field : fields) {
+                if (!index.containsKey(field.getName())) {
+                    index.put(field.getName(), field);
+                }
+            }
+            indexes.fields = index;
+        }
+        return index.get(name);
     }
 
+    /**
+     * @param name the internal name of the inner class.
+     * @return the inner class entry, or null.
+     */
+    public InnerClassData findInnerClass(String name) {
+        Map<String, InnerClassData> index = indexes.innerClasses;
+        if (index == null) {
+            index = new HashMap<String, InnerClassData>(innerClasses.size() * 2);
+            for (InnerClassData innerClass : innerClasses) {
+                if (!index.containsKey(innerClass.getName())) {
+                    index.put(innerClass.getName(), innerClass);
+                }
+            }
+            indexes.innerClasses = index;
+        }
+        return index.get(name);
+    }
+
+    public boolean isSame(ClassData newClazz) {
+        return isSameSymbol(newClazz, getNameId(), newClazz.getNameId(), getName(), newClazz.getName());
+    }
+    
+
     /**
      * @return the signature
      */
@@ -111,13 +198,6 @@ public class ClassData extends JavaItem {
         return superName;
     }
 
-    /**
-     * @param superName the superName to set
-     */
-    protected void setSuperName(String superName) {
-        this.superName = superName;
-    }
-
     /**
      * @return the interfaces
      */
@@ -125,13 +205,6 @@ public class ClassData extends JavaItem {
         return interfaces;
     }
 
-    /**
-     * @param interfaces the interfaces to set
-     */
-    protected void setInterfaces(List<String> interfaces) {
-        this.interfaces = interfaces;
-    }
-
     /**
      * @return the version
      */
@@ -139,65 +212,39 @@ public class ClassData extends JavaItem {
         return version;
     }
 
-    /**
-     * @param version the version to set
-     */
-    protected void setVersion(int version) {
-        this.version = version;
-    }
-
     /**
      * @return the methods
      */
     public List<MethodData> getMethods() {
-        return methods;
-    }
-
-    /**
-     * @param methods the methods to set
-     */
-    protected void setMethods(List<MethodData> methods) {
-        this.methods = methods;
+        return Collections.unmodifiableList(methods);
     }
 
     /**
      * @return the fields
      */
     public List<FieldData> getFields() {
-        return fields;
-    }
-
-    /**
-     * @param fields the fields to set
-     */
-    protected void setFields(List<FieldData> fields) {
-        this.fields = fields;
+        return Collections.unmodifiableList(fields);
     }
 
     /**
      * @return the attributes
      */
     public List<AttributeData> getAttributes() {
-        return attributes;
-    }
-
-    /**
-     * @param attributes the attributes to set
-     */
-    protected void setAttributes(List<AttributeData> attributes) {
-        this.attributes = attributes;
+        return Collections.unmodifiableList(attributes);
     }
 
 
     public void add(InnerClassData clazz) {
+        checkNotFrozen();
         innerClasses.add(clazz);
+        indexes.innerClasses = null;
     }
 
     /**
-     * @param source the source to set
+     * @return the inner classes
      */
-    public void setSource(String source) {
-        this.source = source;
+    public List<InnerClassData> getInnerClasses() {
+        return Collections.unmodifiableList(innerClasses);
     }
 
     /**
@@ -213,4 +260,48 @@ public class ClassData extends JavaItem {
         }
         return this.getSource();
     }
+
+    /**
+     * Lookup indexes of the members, built on first use and dropped when
+     * a member is added. Rules may look members up from several threads,
+     * an index being published whole through a volatile field.
+     */
+    /**
+     * Ends the building of the class, its members cannot be added anymore.
+     * @return the class itself.
+     */
+    public ClassData freeze() {
+        if (!indexes.frozen) {
+            methods.trimToSize();
+            fields.trimToSize();
+            attributes.trimToSize();
+            innerClasses.trimToSize();
+            indexes.frozen = true;
+        }
+        return this;
+    }
+
+    /**
+     * @return true if the class has been frozen, so it cannot be modified anymore.
+     */
+    public boolean isFrozen() {
+        return indexes.frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (indexes.frozen) {
+            throw new IllegalStateException("The class " + getName() + " is frozen.");
+        }
+    }
+
+    /**
+     * The state of the class which is not part of its model: the lazily built
+     * member indexes, and whether the class is still being built.
+     */
+    private static class Indexes {
+        volatile Map<String, MethodData> methods;
+        volatile Map<String, FieldData> fields;
+        volatile Map<String, InnerClassData> innerClasses;
+        volatile boolean frozen;
+    }
 }
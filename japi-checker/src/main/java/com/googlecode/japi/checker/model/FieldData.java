@@ -21,22 +21,17 @@ import com.googlecode.japi.checker.Reporter;
 import com.googlecode.japi.checker.Rule;
 
 public class FieldData extends JavaItem {
-    private String descriptor;
-    private String signature;
-    private Object value;
+    private final String descriptor;
+    private final int descriptorId;
+    private final String signature;
+    private final Object value;
 
     public FieldData(ClassData owner, int access, String name, String descriptor, String signature, Object value) {
         super(owner, access, name);
-        this.setDescriptor(descriptor);
-        this.setSignature(signature);
-        this.setValue(value);
-    }
-
-    /**
-     * @param description the description to set
-     */
-    public void setDescriptor(String descriptor) {
-        this.descriptor = descriptor;
+        this.descriptorId = getSymbols().intern(descriptor);
+        this.descriptor = getSymbols().get(descriptorId);
+        this.signature = toSymbol(signature);
+        this.value = value;
     }
 
     /**
@@ -47,10 +42,10 @@ public class FieldData extends JavaItem {
     }
 
     /**
-     * @param signature the signature to set
+     * @return the id of the descriptor in the symbol table
      */
-    public void setSignature(String signature) {
-        this.signature = signature;
+    public int getDescriptorId() {
+        return descriptorId;
     }
 
     /**
@@ -60,13 +55,6 @@ public class FieldData extends JavaItem {
         return signature;
     }
 
-    /**
-     * @param value the value to set
-     */
-    public void setValue(Object value) {
-        this.value = value;
-    }
-
     /**
      * @return the value
      */
@@ -75,11 +63,11 @@ public class FieldData extends JavaItem {
     }
     
     public boolean isSame(FieldData reference) {
-        return this.getName().equals(reference.getName());
+        return isSameSymbol(reference, getNameId(), reference.getNameId(), getName(), reference.getName());
     }
     
     public boolean hasSameType(FieldData reference) {
-        return this.getDescriptor().equals(reference.getDescriptor());
+        return isSameSymbol(reference, descriptorId, reference.descriptorId, descriptor, reference.descriptor);
     }
 
     public void checkBackwardCompatibility(Reporter reporter,
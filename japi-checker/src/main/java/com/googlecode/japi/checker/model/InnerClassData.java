@@ -18,14 +18,14 @@ package com.googlecode.japi.checker.model;
 
 public class InnerClassData extends JavaItem {
 
-    private String outerName;
-    private String innerName;
+    private final String outerName;
+    private final String innerName;
     
     public InnerClassData(ClassData owner, int access, String name, String outerName,
             String innerName) {
         super(owner, access, name);
-        this.setOuterName(outerName);
-        this.setInnerName(innerName);
+        this.outerName = toSymbol(outerName);
+        this.innerName = toSymbol(innerName);
     }
 
     @Override
@@ -33,13 +33,6 @@ public class InnerClassData extends JavaItem {
         return "class";
     }
 
-    /**
-     * @param outerName the outerName to set
-     */
-    protected void setOuterName(String outerName) {
-        this.outerName = outerName;
-    }
-
     /**
      * @return the outerName
      */
@@ -47,13 +40,6 @@ public class InnerClassData extends JavaItem {
         return outerName;
     }
 
-    /**
-     * @param innerName the innerName to set
-     */
-    protected void setInnerName(String innerName) {
-        this.innerName = innerName;
-    }
-
     /**
      * @return the innerName
      */
@@ -18,34 +18,52 @@ package com.googlecode.japi.checker.model;
 import org.objectweb.asm.Opcodes;
 
 import com.googlecode.japi.checker.Scope;
+import com.googlecode.japi.checker.utils.SymbolTable;
 
+/**
+ * An immutable item of the model. The raw access flags are kept, the
+ * visibility and the modifiers being derived from them, so
+ * {@link #getChangedAccess(JavaItem)} reveals every modifier change at once.
+ */
 public abstract class JavaItem {
-    private Scope visibility = Scope.PROTECTED;
-    private ClassData owner;
-    private String name;
-    private boolean isAbstract;
-    private boolean isInterface;
-    private boolean isFinal;
-    private boolean isStatic;
-    private boolean isTransient;
+    private final ClassData owner;
+    private final SymbolTable symbols;
+    private final String name;
+    private final int nameId;
+    private final int access;
 
     protected JavaItem(ClassData owner, int access, String name) {
-        this.setOwner(owner);
-        this.setName(name);
-        this.setVisibility(toScope(access));
-        this.setAbstract((access & Opcodes.ACC_ABSTRACT) == Opcodes.ACC_ABSTRACT);
-        this.setInterface((access & Opcodes.ACC_INTERFACE) == Opcodes.ACC_INTERFACE);
-        this.setFinal((access & Opcodes.ACC_FINAL) == Opcodes.ACC_FINAL);
-        this.setStatic((access & Opcodes.ACC_STATIC) == Opcodes.ACC_STATIC);
-        this.setTransient((access & Opcodes.ACC_TRANSIENT) == Opcodes.ACC_TRANSIENT);
+        this(owner == null ? new SymbolTable() : owner.getSymbols(), owner, access, name);
     }
 
-    protected void setVisibility(Scope visibility) {
-        this.visibility = visibility;
+    /**
+     * @param symbols the symbol table holding the names, descriptors and signatures of the item.
+     */
+    protected JavaItem(SymbolTable symbols, ClassData owner, int access, String name) {
+        this.symbols = symbols;
+        this.owner = owner;
+        this.access = access;
+        this.nameId = symbols.intern(name);
+        this.name = symbols.get(nameId);
+    }
+
+    /**
+     * @return the access flags, as defined by the Opcodes.ACC_* constants.
+     */
+    public int getAccess() {
+        return access;
+    }
+
+    /**
+     * @param item another item.
+     * @return the access flags set on only one of the items.
+     */
+    public int getChangedAccess(JavaItem item) {
+        return access ^ item.access;
     }
 
     public Scope getVisibility() {
-        return visibility;
+        return toScope(access);
     }
     
     public static Scope toScope(int access) {
@@ -60,91 +78,72 @@ public abstract class JavaItem {
         }
     }
 
-    /**
-     * @param isAbstract the isAbstract to set
-     */
-    protected void setAbstract(boolean isAbstract) {
-        this.isAbstract = isAbstract;
-    }
-
-    /**
-     * @return the isAbstract
-     */
     public boolean isAbstract() {
-        return isAbstract;
+        return (access & Opcodes.ACC_ABSTRACT) == Opcodes.ACC_ABSTRACT;
     }
 
-    /**
-     * @param isInterface the isInterface to set
-     */
-    protected void setInterface(boolean isInterface) {
-        this.isInterface = isInterface;
-    }
-
-    /**
-     * @return the isInterface
-     */
     public boolean isInterface() {
-        return isInterface;
+        return (access & Opcodes.ACC_INTERFACE) == Opcodes.ACC_INTERFACE;
     }
 
-    /**
-     * @param isFinal the isFinal to set
-     */
-    protected void setFinal(boolean isFinal) {
-        this.isFinal = isFinal;
+    public boolean isFinal() {
+        return (access & Opcodes.ACC_FINAL) == Opcodes.ACC_FINAL;
     }
 
-    /**
-     * @return the isFinal
-     */
-    public boolean isFinal() {
-        return isFinal;
+    public boolean isStatic() {
+        return (access & Opcodes.ACC_STATIC) == Opcodes.ACC_STATIC;
     }
 
+    public boolean isTransient() {
+        return (access & Opcodes.ACC_TRANSIENT) == Opcodes.ACC_TRANSIENT;
+    }
+    
     /**
-     * @param isStatic the isStatic to set
+     * @return the name
      */
-    protected void setStatic(boolean isStatic) {
-        this.isStatic = isStatic;
+    public String getName() {
+        return name;
     }
 
     /**
-     * @return the isStatic
+     * @return the id of the name in the symbol table.
      */
-    public boolean isStatic() {
-        return isStatic;
+    public int getNameId() {
+        return nameId;
     }
 
     /**
-     * @param isTransient the isTransient to set
+     * @return the symbol table holding the names, descriptors and signatures of the item.
      */
-    protected void setTransient(boolean isTransient) {
-        this.isTransient = isTransient;
+    public SymbolTable getSymbols() {
+        return symbols;
     }
 
     /**
-     * @return the isTransient
+     * @param symbol a symbol, possibly null.
+     * @return the instance of the symbol held by the symbol table.
      */
-    public boolean isTransient() {
-        return isTransient;
+    protected String toSymbol(String symbol) {
+        return symbols.get(symbols.intern(symbol));
     }
-    
+
     /**
-     * @return the name
+     * @param item another item.
+     * @return true if the symbols of both items can be compared by id.
      */
-    public String getName() {
-        return name;
+    protected boolean hasSameSymbols(JavaItem item) {
+        return symbols == item.symbols;
     }
 
     /**
-     * @param name the name to set
+     * Compares two symbols of items, by id when the items share their symbol table.
      */
-    protected void setName(String name) {
-        this.name = name;
+    protected boolean isSameSymbol(JavaItem item, int id, int otherId, String symbol, String otherSymbol) {
+        if (hasSameSymbols(item)) {
+            return id == otherId;
+        }
+        return symbol == null ? otherSymbol == null : symbol.equals(otherSymbol);
     }
-
-    
     
     /**
      * @return the owner
@@ -153,13 +152,6 @@ public abstract class JavaItem {
         return owner;
     }
 
-    /**
-     * @param owner the owner to set
-     */
-    protected void setOwner(ClassData owner) {
-        this.owner = owner;
-    }
-
     public abstract String getType();
     
     /**
@@ -16,6 +16,7 @@
 package com.googlecode.japi.checker.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -23,17 +24,31 @@ import com.googlecode.japi.checker.Reporter;
 import com.googlecode.japi.checker.Rule;
 
 public class MethodData extends JavaItem {
-    private String signature;
-    private String descriptor;
-    private List<String> exceptions = new ArrayList<String>();
-    private int line;
+    private static final int[] NO_EXCEPTIONS = new int[0];
+    private final String signature;
+    private final String descriptor;
+    private final int descriptorId;
+    private final List<String> exceptions;
+    private final int[] exceptionIds;
+    // the only mutable state, as line numbers may be resolved once the method is published.
+    private volatile int line;
     
     public MethodData(ClassData owner, int access, String name, String descriptor, String signature, String[] exceptions) {
         super(owner, access, name);
-        this.setSignature(signature);
-        this.setDescriptor(descriptor);
-        if (exceptions != null) {
-            Collections.addAll(this.exceptions, exceptions);
+        this.signature = toSymbol(signature);
+        this.descriptorId = getSymbols().intern(descriptor);
+        this.descriptor = getSymbols().get(descriptorId);
+        if (exceptions == null || exceptions.length == 0) {
+            this.exceptions = Collections.emptyList();
+            this.exceptionIds = NO_EXCEPTIONS;
+        } else {
+            String[] symbols = new String[exceptions.length];
+            this.exceptionIds = new int[exceptions.length];
+            for (int i = 0; i < exceptions.length; i++) {
+                exceptionIds[i] = getSymbols().intern(exceptions[i]);
+                symbols[i] = getSymbols().get(exceptionIds[i]);
+            }
+            this.exceptions = Collections.unmodifiableList(Arrays.asList(symbols));
         }
     }
 
@@ -44,21 +59,33 @@ public class MethodData extends JavaItem {
         if (method == null) {
             return false;
         }
-        return this.getName().equals(method.getName()) && this.getDescriptor().equals(method.getDescriptor());
+        return isSameSymbol(method, getNameId(), method.getNameId(), getName(), method.getName()) &&
+                isSameSymbol(method, descriptorId, method.descriptorId, descriptor, method.descriptor);
     }
 
     /**
-     * @return the signature
+     * @param method another method.
+     * @return the exceptions declared by this method but not by the other one, in declaration order.
      */
-    public String getSignature() {
-        return signature;
+    public List<String> getExceptionsNotDeclaredBy(MethodData method) {
+        List<String> result = new ArrayList<String>();
+        for (int i = 0; i < exceptionIds.length; i++) {
+            boolean found = false;
+            for (int j = 0; j < method.exceptionIds.length && !found; j++) {
+                found = isSameSymbol(method, exceptionIds[i], method.exceptionIds[j], exceptions.get(i), method.exceptions.get(j));
+            }
+            if (!found) {
+                result.add(exceptions.get(i));
+            }
+        }
+        return result;
     }
 
     /**
-     * @param signature the signature to set
+     * @return the signature
      */
-    protected void setSignature(String signature) {
-        this.signature = signature;
+    public String getSignature() {
+        return signature;
     }
 
     @Override
@@ -66,13 +93,6 @@ public class MethodData extends JavaItem {
         return "method";
     }
 
-    /**
-     * @param descriptor the descriptor to set
-     */
-    protected void setDescriptor(String descriptor) {
-        this.descriptor = descriptor;
-    }
-
     /**
      * @return the descriptor
      */
@@ -81,10 +101,10 @@ public class MethodData extends JavaItem {
     }
 
     /**
-     * @param exceptions the exceptions to set
+     * @return the id of the descriptor in the symbol table
      */
-    protected void setExceptions(List<String> exceptions) {
-        this.exceptions = exceptions;
+    public int getDescriptorId() {
+        return descriptorId;
     }
 
     /**
@@ -94,6 +114,10 @@ public class MethodData extends JavaItem {
         return exceptions;
     }
 
+    /**
+     * Sets the line number, possibly resolved after the parsing of the method.
+     * @param line the line number.
+     */
     public void setLineNumber(int line) {
         this.line = line;
     }
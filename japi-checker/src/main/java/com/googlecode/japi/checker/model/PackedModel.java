@@ -0,0 +1,474 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker.model;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.googlecode.japi.checker.Scope;
+import com.googlecode.japi.checker.utils.SymbolTable;
+
+/**
+ * The API of a whole artifact stored as a struct of arrays: one row per
+ * class, field, method and inner class in parallel int columns, symbols
+ * being ids of a {@link SymbolTable}. The members of a class, its interfaces
+ * and the exceptions of a method are ranges of their table, given by a start
+ * column whose next row holds the end.
+ *
+ * {@link #get(int)} materializes a class as a short lived {@link ClassData}
+ * view, so rules run unchanged while only the classes being compared exist
+ * as objects.
+ */
+public class PackedModel {
+    private final SymbolTable symbols;
+    // class table
+    private int classCount;
+    private int[] classNames = new int[64];
+    private int[] classAccess = new int[64];
+    private int[] classSignatures = new int[64];
+    private int[] classSuperNames = new int[64];
+    private int[] classVersions = new int[64];
+    private int[] classSources = new int[64];
+    private int[] classInterfaces = new int[65];
+    private int[] classFields = new int[65];
+    private int[] classMethods = new int[65];
+    private int[] classInnerClasses = new int[65];
+    // class index by name id, -1 if none.
+    private int[] classIndex = new int[0];
+    // interface table
+    private int interfaceCount;
+    private int[] interfaces = new int[64];
+    // field table
+    private int fieldCount;
+    private int[] fieldNames = new int[64];
+    private int[] fieldAccess = new int[64];
+    private int[] fieldDescriptors = new int[64];
+    private int[] fieldSignatures = new int[64];
+    private Object[] fieldValues = new Object[64];
+    // method table
+    private int methodCount;
+    private int[] methodNames = new int[64];
+    private int[] methodAccess = new int[64];
+    private int[] methodDescriptors = new int[64];
+    private int[] methodSignatures = new int[64];
+    private int[] methodLines = new int[64];
+    private int[] methodExceptions = new int[65];
+    // exception table
+    private int exceptionCount;
+    private int[] exceptions = new int[64];
+    // inner class table
+    private int innerClassCount;
+    private int[] innerClassNames = new int[64];
+    private int[] innerClassAccess = new int[64];
+    private int[] innerClassOuterNames = new int[64];
+    private int[] innerClassInnerNames = new int[64];
+
+    /**
+     * @param symbols the symbol table of the classes, shared with the model they are compared with.
+     */
+    public PackedModel(SymbolTable symbols) {
+        this.symbols = symbols;
+    }
+
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Appends a class to the model, the class object can then be released.
+     * @param clazz the class.
+     * @return the index of the class.
+     */
+    public int add(ClassData clazz) {
+        int index = classCount;
+        if (index == classNames.length) {
+            int capacity = classNames.length * 2;
+            classNames = grow(classNames, capacity);
+            classAccess = grow(classAccess, capacity);
+            classSignatures = grow(classSignatures, capacity);
+            classSuperNames = grow(classSuperNames, capacity);
+            classVersions = grow(classVersions, capacity);
+            classSources = grow(classSources, capacity);
+            classInterfaces = grow(classInterfaces, capacity + 1);
+            classFields = grow(classFields, capacity + 1);
+            classMethods = grow(classMethods, capacity + 1);
+            classInnerClasses = grow(classInnerClasses, capacity + 1);
+        }
+        classNames[index] = symbols.intern(clazz.getName());
+        classAccess[index] = clazz.getAccess();
+        classSignatures[index] = symbols.intern(clazz.getSignature());
+        classSuperNames[index] = symbols.intern(clazz.getSuperName());
+        classVersions[index] = clazz.getVersion();
+        classSources[index] = symbols.intern(clazz.getSource());
+        for (String iface : clazz.getInterfaces()) {
+            addInterface(symbols.intern(iface));
+        }
+        for (FieldData field : clazz.getFields()) {
+            addField(field);
+        }
+        for (MethodData method : clazz.getMethods()) {
+            addMethod(method);
+        }
+        for (InnerClassData innerClass : clazz.getInnerClasses()) {
+            addInnerClass(innerClass);
+        }
+        classCount++;
+        classInterfaces[classCount] = interfaceCount;
+        classFields[classCount] = fieldCount;
+        classMethods[classCount] = methodCount;
+        classInnerClasses[classCount] = innerClassCount;
+
+        int nameId = classNames[index];
+        if (nameId >= classIndex.length) {
+            int previous = classIndex.length;
+            classIndex = grow(classIndex, Math.max(nameId + 1, previous * 2));
+            Arrays.fill(classIndex, previous, classIndex.length, -1);
+        }
+        classIndex[nameId] = index;
+        return index;
+    }
+
+    private void addInterface(int nameId) {
+        if (interfaceCount == interfaces.length) {
+            interfaces = grow(interfaces, interfaceCount * 2);
+        }
+        interfaces[interfaceCount++] = nameId;
+    }
+
+    private void addField(FieldData field) {
+        if (fieldCount == fieldNames.length) {
+            int capacity = fieldCount * 2;
+            fieldNames = grow(fieldNames, capacity);
+            fieldAccess = grow(fieldAccess, capacity);
+            fieldDescriptors = grow(fieldDescriptors, capacity);
+            fieldSignatures = grow(fieldSignatures, capacity);
+            fieldValues = Arrays.copyOf(fieldValues, capacity);
+        }
+        fieldNames[fieldCount] = symbols.intern(field.getName());
+        fieldAccess[fieldCount] = field.getAccess();
+        fieldDescriptors[fieldCount] = symbols.intern(field.getDescriptor());
+        fieldSignatures[fieldCount] = symbols.intern(field.getSignature());
+        fieldValues[fieldCount] = field.getValue();
+        fieldCount++;
+    }
+
+    private void addMethod(MethodData method) {
+        if (methodCount == methodNames.length) {
+            int capacity = methodNames.length * 2;
+            methodNames = grow(methodNames, capacity);
+            methodAccess = grow(methodAccess, capacity);
+            methodDescriptors = grow(methodDescriptors, capacity);
+            methodSignatures = grow(methodSignatures, capacity);
+            methodLines = grow(methodLines, capacity);
+            methodExceptions = grow(methodExceptions, capacity + 1);
+        }
+        methodNames[methodCount] = symbols.intern(method.getName());
+        methodAccess[methodCount] = method.getAccess();
+        methodDescriptors[methodCount] = symbols.intern(method.getDescriptor());
+        methodSignatures[methodCount] = symbols.intern(method.getSignature());
+        methodLines[methodCount] = method.getLineNumber();
+        for (String exception : method.getExceptions()) {
+            if (exceptionCount == exceptions.length) {
+                exceptions = grow(exceptions, exceptionCount * 2);
+            }
+            exceptions[exceptionCount++] = symbols.intern(exception);
+        }
+        methodCount++;
+        methodExceptions[methodCount] = exceptionCount;
+    }
+
+    private void addInnerClass(InnerClassData innerClass) {
+        if (innerClassCount == innerClassNames.length) {
+            int capacity = innerClassCount * 2;
+            innerClassNames = grow(innerClassNames, capacity);
+            innerClassAccess = grow(innerClassAccess, capacity);
+            innerClassOuterNames = grow(innerClassOuterNames, capacity);
+            innerClassInnerNames = grow(innerClassInnerNames, capacity);
+        }
+        innerClassNames[innerClassCount] = symbols.intern(innerClass.getName());
+        innerClassAccess[innerClassCount] = innerClass.getAccess();
+        innerClassOuterNames[innerClassCount] = symbols.intern(innerClass.getOuterName());
+        innerClassInnerNames[innerClassCount] = symbols.intern(innerClass.getInnerName());
+        innerClassCount++;
+    }
+
+    /**
+     * @return the number of classes.
+     */
+    public int size() {
+        return classCount;
+    }
+
+    /**
+     * @param nameId the id of the internal name of a class.
+     * @return the index of the class, or -1.
+     */
+    public int indexOf(int nameId) {
+        return nameId >= 0 && nameId < classIndex.length ? classIndex[nameId] : -1;
+    }
+
+    /**
+     * @param index the index of a class.
+     * @return the id of its internal name.
+     */
+    public int getNameId(int index) {
+        return classNames[index];
+    }
+
+    /**
+     * @param index the index of a class.
+     * @return the access flags of the class, without materializing it.
+     */
+    public int getAccess(int index) {
+        return classAccess[index];
+    }
+
+    /**
+     * @param index the index of a class.
+     * @return the visibility of the class, without materializing it.
+     */
+    public Scope getVisibility(int index) {
+        return JavaItem.toScope(classAccess[index]);
+    }
+
+    /**
+     * Materializes a class and its members.
+     * @param index the index of a class.
+     * @return a new view of the class.
+     */
+    public ClassData get(int index) {
+        String[] interfaceNames = new String[classInterfaces[index + 1] - classInterfaces[index]];
+        for (int i = 0; i < interfaceNames.length; i++) {
+            interfaceNames[i] = symbols.get(interfaces[classInterfaces[index] + i]);
+        }
+        ClassData clazz = new ClassData(symbols, null, classAccess[index], symbols.get(classNames[index]),
+                symbols.get(classSignatures[index]), symbols.get(classSuperNames[index]), interfaceNames, classVersions[index],
+                symbols.get(classSources[index]));
+        for (int i = classFields[index]; i < classFields[index + 1]; i++) {
+            clazz.add(new FieldData(clazz, fieldAccess[i], symbols.get(fieldNames[i]),
+                    symbols.get(fieldDescriptors[i]), symbols.get(fieldSignatures[i]), fieldValues[i]));
+        }
+        for (int i = classMethods[index]; i < classMethods[index + 1]; i++) {
+            String[] methodExceptionNames = new String[methodExceptions[i + 1] - methodExceptions[i]];
+            for (int j = 0; j < methodExceptionNames.length; j++) {
+                methodExceptionNames[j] = symbols.get(exceptions[methodExceptions[i] + j]);
+            }
+            MethodData method = new MethodData(clazz, methodAccess[i], symbols.get(methodNames[i]),
+                    symbols.get(methodDescriptors[i]), symbols.get(methodSignatures[i]), methodExceptionNames);
+            method.setLineNumber(methodLines[i]);
+            clazz.add(method);
+        }
+        for (int i = classInnerClasses[index]; i < classInnerClasses[index + 1]; i++) {
+            clazz.add(new InnerClassData(clazz, innerClassAccess[i], symbols.get(innerClassNames[i]),
+                    symbols.get(innerClassOuterNames[i]), symbols.get(innerClassInnerNames[i])));
+        }
+        return clazz.freeze();
+    }
+
+    /**
+     * Writes the symbols and the tables of the model, as they are.
+     * @param out the output.
+     * @throws IOException if the model cannot be written.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        int symbolCount = symbols.size();
+        out.writeInt(symbolCount);
+        for (int id = 0; id < symbolCount; id++) {
+            // symbols come from class files, whose strings fit writeUTF.
+            out.writeUTF(symbols.get(id));
+        }
+        out.writeInt(classCount);
+        write(out, classNames, classCount);
+        write(out, classAccess, classCount);
+        write(out, classSignatures, classCount);
+        write(out, classSuperNames, classCount);
+        write(out, classVersions, classCount);
+        write(out, classSources, classCount);
+        write(out, classInterfaces, classCount + 1);
+        write(out, classFields, classCount + 1);
+        write(out, classMethods, classCount + 1);
+        write(out, classInnerClasses, classCount + 1);
+        out.writeInt(interfaceCount);
+        write(out, interfaces, interfaceCount);
+        out.writeInt(fieldCount);
+        write(out, fieldNames, fieldCount);
+        write(out, fieldAccess, fieldCount);
+        write(out, fieldDescriptors, fieldCount);
+        write(out, fieldSignatures, fieldCount);
+        for (int i = 0; i < fieldCount; i++) {
+            writeValue(out, fieldValues[i]);
+        }
+        out.writeInt(methodCount);
+        write(out, methodNames, methodCount);
+        write(out, methodAccess, methodCount);
+        write(out, methodDescriptors, methodCount);
+        write(out, methodSignatures, methodCount);
+        write(out, methodLines, methodCount);
+        write(out, methodExceptions, methodCount + 1);
+        out.writeInt(exceptionCount);
+        write(out, exceptions, exceptionCount);
+        out.writeInt(innerClassCount);
+        write(out, innerClassNames, innerClassCount);
+        write(out, innerClassAccess, innerClassCount);
+        write(out, innerClassOuterNames, innerClassCount);
+        write(out, innerClassInnerNames, innerClassCount);
+    }
+
+    /**
+     * Reads a model written by {@link #write(DataOutputStream)}, in a new symbol table.
+     * @param in the input.
+     * @return the model.
+     * @throws IOException if the model cannot be read.
+     */
+    public static PackedModel read(DataInputStream in) throws IOException {
+        SymbolTable symbols = new SymbolTable();
+        int symbolCount = in.readInt();
+        for (int id = 0; id < symbolCount; id++) {
+            if (symbols.intern(in.readUTF()) != id) {
+                throw new IOException("Duplicated symbol " + id + ".");
+            }
+        }
+        PackedModel model = new PackedModel(symbols);
+        int count = in.readInt();
+        model.classCount = count;
+        model.classNames = read(in, count, count + 1);
+        model.classAccess = read(in, count, count + 1);
+        model.classSignatures = read(in, count, count + 1);
+        model.classSuperNames = read(in, count, count + 1);
+        model.classVersions = read(in, count, count + 1);
+        model.classSources = read(in, count, count + 1);
+        model.classInterfaces = read(in, count + 1, count + 2);
+        model.classFields = read(in, count + 1, count + 2);
+        model.classMethods = read(in, count + 1, count + 2);
+        model.classInnerClasses = read(in, count + 1, count + 2);
+        count = in.readInt();
+        model.interfaceCount = count;
+        model.interfaces = read(in, count, count + 1);
+        count = in.readInt();
+        model.fieldCount = count;
+        model.fieldNames = read(in, count, count + 1);
+        model.fieldAccess = read(in, count, count + 1);
+        model.fieldDescriptors = read(in, count, count + 1);
+        model.fieldSignatures = read(in, count, count + 1);
+        model.fieldValues = new Object[count + 1];
+        for (int i = 0; i < count; i++) {
+            model.fieldValues[i] = readValue(in);
+        }
+        count = in.readInt();
+        model.methodCount = count;
+        model.methodNames = read(in, count, count + 1);
+        model.methodAccess = read(in, count, count + 1);
+        model.methodDescriptors = read(in, count, count + 1);
+        model.methodSignatures = read(in, count, count + 1);
+        model.methodLines = read(in, count, count + 1);
+        model.methodExceptions = read(in, count + 1, count + 2);
+        count = in.readInt();
+        model.exceptionCount = count;
+        model.exceptions = read(in, count, count + 1);
+        count = in.readInt();
+        model.innerClassCount = count;
+        model.innerClassNames = read(in, count, count + 1);
+        model.innerClassAccess = read(in, count, count + 1);
+        model.innerClassOuterNames = read(in, count, count + 1);
+        model.innerClassInnerNames = read(in, count, count + 1);
+        model.classIndex = new int[symbolCount];
+        Arrays.fill(model.classIndex, -1);
+        for (int i = 0; i < model.classCount; i++) {
+            if (model.classNames[i] < 0 || model.classNames[i] >= symbolCount) {
+                throw new IOException("Invalid class name " + model.classNames[i] + ".");
+            }
+            model.classIndex[model.classNames[i]] = i;
+        }
+        return model;
+    }
+
+    private static void write(DataOutputStream out, int[] column, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            out.writeInt(column[i]);
+        }
+    }
+
+    private static int[] read(DataInputStream in, int length, int capacity) throws IOException {
+        if (length < 0) {
+            throw new IOException("Invalid table length " + length + ".");
+        }
+        int[] column = new int[capacity];
+        for (int i = 0; i < length; i++) {
+            column[i] = in.readInt();
+        }
+        return column;
+    }
+
+    /**
+     * Writes a constant value: null, or one of the types of a ConstantValue attribute.
+     * @param out the output.
+     * @param value the value of a field.
+     * @throws IOException if the value cannot be written.
+     */
+    public static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(0);
+        } else if (value instanceof Integer) {
+            out.writeByte(1);
+            out.writeInt((Integer)value);
+        } else if (value instanceof Long) {
+            out.writeByte(2);
+            out.writeLong((Long)value);
+        } else if (value instanceof Float) {
+            out.writeByte(3);
+            out.writeFloat((Float)value);
+        } else if (value instanceof Double) {
+            out.writeByte(4);
+            out.writeDouble((Double)value);
+        } else if (value instanceof String) {
+            out.writeByte(5);
+            out.writeUTF((String)value);
+        } else {
+            throw new IOException("Unsupported constant value " + value + ".");
+        }
+    }
+
+    /**
+     * @param in the input.
+     * @return a value written by {@link #writeValue(DataOutputStream, Object)}.
+     * @throws IOException if the value cannot be read.
+     */
+    public static Object readValue(DataInputStream in) throws IOException {
+        int type = in.readByte();
+        switch (type) {
+        case 0:
+            return null;
+        case 1:
+            return in.readInt();
+        case 2:
+            return in.readLong();
+        case 3:
+            return in.readFloat();
+        case 4:
+            return in.readDouble();
+        case 5:
+            return in.readUTF();
+        default:
+            throw new IOException("Invalid constant value type " + type + ".");
+        }
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        return Arrays.copyOf(array, capacity);
+    }
+}
@@ -17,12 +17,15 @@ package com.googlecode.japi.checker.rules;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
+import com.googlecode.japi.checker.Facet;
+import com.googlecode.japi.checker.FacetedRule;
 import com.googlecode.japi.checker.Reporter;
 import com.googlecode.japi.checker.Rule;
 import com.googlecode.japi.checker.model.JavaItem;
 
-public class AllRules implements Rule {
+public class AllRules implements FacetedRule {
 
     private List<Rule> rules = new ArrayList<Rule>();
     
@@ -50,5 +53,9 @@ public class AllRules implements Rule {
             rule.checkBackwardCompatibility(reporter, reference, newItem);
         }
     }
-    
+
+    @Override
+    public Set<Facet> getRequiredFacets() {
+        return Facet.requiredBy(rules);
+    }
 }
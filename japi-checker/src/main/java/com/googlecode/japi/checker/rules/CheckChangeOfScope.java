@@ -15,14 +15,18 @@
  */
 package com.googlecode.japi.checker.rules;
 
+import java.util.EnumSet;
+import java.util.Set;
+
+import com.googlecode.japi.checker.Facet;
+import com.googlecode.japi.checker.FacetedRule;
 import com.googlecode.japi.checker.Reporter;
 import com.googlecode.japi.checker.Scope;
 import com.googlecode.japi.checker.Reporter.Report;
-import com.googlecode.japi.checker.Rule;
 import com.googlecode.japi.checker.model.ClassData;
 import com.googlecode.japi.checker.model.JavaItem;
 
-public class CheckChangeOfScope implements Rule {
+public class CheckChangeOfScope implements FacetedRule {
 
     @Override
     public void checkBackwardCompatibility(Reporter reporter,
@@ -48,4 +52,8 @@ public class CheckChangeOfScope implements Rule {
         return item.getOwner();
     }
 
+    @Override
+    public Set<Facet> getRequiredFacets() {
+        return EnumSet.of(Facet.FIELDS, Facet.METHODS);
+    }
 }
@@ -15,14 +15,18 @@
  */
 package com.googlecode.japi.checker.rules;
 
+import java.util.EnumSet;
+import java.util.Set;
+
+import com.googlecode.japi.checker.Facet;
+import com.googlecode.japi.checker.FacetedRule;
 import com.googlecode.japi.checker.Reporter;
-import com.googlecode.japi.checker.Rule;
 import com.googlecode.japi.checker.Reporter.Level;
 import com.googlecode.japi.checker.Reporter.Report;
 import com.googlecode.japi.checker.model.ClassData;
 import com.googlecode.japi.checker.model.JavaItem;
 
-public class CheckClassVersion implements Rule {
+public class CheckClassVersion implements FacetedRule {
 
     @Override
     public void checkBackwardCompatibility(Reporter reporter,
@@ -35,4 +39,8 @@ public class CheckClassVersion implements Rule {
         }
     }
 
+    @Override
+    public Set<Facet> getRequiredFacets() {
+        return EnumSet.noneOf(Facet.class);
+    }
 }
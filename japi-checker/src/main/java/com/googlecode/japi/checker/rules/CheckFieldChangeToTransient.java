@@ -15,15 +15,19 @@
  */
 package com.googlecode.japi.checker.rules;
 
+import java.util.EnumSet;
+import java.util.Set;
+
+import com.googlecode.japi.checker.Facet;
+import com.googlecode.japi.checker.FacetedRule;
 import com.googlecode.japi.checker.Reporter;
 import com.googlecode.japi.checker.Reporter.Level;
 import com.googlecode.japi.checker.Reporter.Report;
 import com.googlecode.japi.checker.model.FieldData;
 import com.googlecode.japi.checker.model.JavaItem;
-import com.googlecode.japi.checker.Rule;
 import com.googlecode.japi.checker.Scope;
 
-public class CheckFieldChangeToTransient implements Rule {
+public class CheckFieldChangeToTransient implements FacetedRule {
 
     @Override
     public void checkBackwardCompatibility(Reporter reporter,
@@ -38,4 +42,8 @@ public class CheckFieldChangeToTransient implements Rule {
         }
     }
 
+    @Override
+    public Set<Facet> getRequiredFacets() {
+        return EnumSet.of(Facet.FIELDS);
+    }
 }
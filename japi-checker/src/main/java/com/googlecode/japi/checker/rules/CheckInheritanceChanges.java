@@ -15,21 +15,27 @@
  */
 package com.googlecode.japi.checker.rules;
 
+import java.util.EnumSet;
+import java.util.Set;
+
+import com.googlecode.japi.checker.Facet;
+import com.googlecode.japi.checker.FacetedRule;
 import com.googlecode.japi.checker.Reporter;
-import com.googlecode.japi.checker.Rule;
 import com.googlecode.japi.checker.Reporter.Level;
 import com.googlecode.japi.checker.Reporter.Report;
 import com.googlecode.japi.checker.model.ClassData;
 import com.googlecode.japi.checker.model.JavaItem;
 
-public class CheckInheritanceChanges implements Rule {
+public class CheckInheritanceChanges implements FacetedRule {
 
     @Override
     public void checkBackwardCompatibility(Reporter reporter,
             JavaItem reference, JavaItem newItem) {
         if (reference instanceof ClassData) {
-            // Check extends...
-            if (!((ClassData) reference).getSuperName().equals(((ClassData) newItem).getSuperName())) {
+            // Check extends, java/lang/Object and module-info having no super class.
+            String superName = ((ClassData) reference).getSuperName();
+            if (superName == null ? ((ClassData) newItem).getSuperName() != null
+                    : !superName.equals(((ClassData) newItem).getSuperName())) {
                 reporter.report(new Report(Level.ERROR, reference.getName() + " extends " + ((ClassData) newItem).getSuperName() +
                         " and not " + ((ClassData) reference).getSuperName() + " anymore.", reference, newItem));
             }
@@ -43,4 +49,8 @@ public class CheckInheritanceChanges implements Rule {
         
     }
 
+    @Override
+    public Set<Facet> getRequiredFacets() {
+        return EnumSet.noneOf(Facet.class);
+    }
 }
@@ -15,15 +15,19 @@
  */
 package com.googlecode.japi.checker.rules;
 
+import java.util.EnumSet;
+import java.util.Set;
+
+import com.googlecode.japi.checker.Facet;
+import com.googlecode.japi.checker.FacetedRule;
 import com.googlecode.japi.checker.Reporter;
-import com.googlecode.japi.checker.Rule;
 import com.googlecode.japi.checker.Reporter.Level;
 import com.googlecode.japi.checker.Reporter.Report;
 import com.googlecode.japi.checker.Scope;
 import com.googlecode.japi.checker.model.JavaItem;
 import com.googlecode.japi.checker.model.MethodData;
 
-public class CheckMethodChangedToFinal implements Rule {
+public class CheckMethodChangedToFinal implements FacetedRule {
 
     @Override
     public void checkBackwardCompatibility(Reporter reporter,
@@ -37,4 +41,8 @@ public class CheckMethodChangedToFinal implements Rule {
         }
     }
 
+    @Override
+    public Set<Facet> getRequiredFacets() {
+        return EnumSet.of(Facet.METHODS);
+    }
 }
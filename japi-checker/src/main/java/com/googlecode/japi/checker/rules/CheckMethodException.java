@@ -15,15 +15,19 @@
  */
 package com.googlecode.japi.checker.rules;
 
+import java.util.EnumSet;
+import java.util.Set;
+
+import com.googlecode.japi.checker.Facet;
+import com.googlecode.japi.checker.FacetedRule;
 import com.googlecode.japi.checker.Reporter;
-import com.googlecode.japi.checker.Rule;
 import com.googlecode.japi.checker.Scope;
 import com.googlecode.japi.checker.Reporter.Level;
 import com.googlecode.japi.checker.Reporter.Report;
 import com.googlecode.japi.checker.model.JavaItem;
 import com.googlecode.japi.checker.model.MethodData;
 
-public class CheckMethodException implements Rule {
+public class CheckMethodException implements FacetedRule {
 
 
     @Override
@@ -32,17 +36,17 @@ public class CheckMethodException implements Rule {
         if (reference instanceof MethodData && reference.getVisibility() != Scope.PRIVATE) {
             MethodData referenceMethod = (MethodData)reference;
             MethodData newMethod = (MethodData)newItem;
-            for (String exception : referenceMethod.getExceptions()) {
-                if (!newMethod.getExceptions().contains(exception)) {
-                    reporter.report(new Report(Level.ERROR, referenceMethod.getName() + " is not throwing " + exception + " anymore.", reference, newItem));
-                }
+            for (String exception : referenceMethod.getExceptionsNotDeclaredBy(newMethod)) {
+                reporter.report(new Report(Level.ERROR, referenceMethod.getName() + " is not throwing " + exception + " anymore.", reference, newItem));
             }
-            for (String exception : newMethod.getExceptions()) {
-                if (!referenceMethod.getExceptions().contains(exception)) {
-                    reporter.report(new Report(Level.ERROR, referenceMethod.getName() + " is now throwing " + exception + ".", reference, newItem));
-                }
+            for (String exception : newMethod.getExceptionsNotDeclaredBy(referenceMethod)) {
+                reporter.report(new Report(Level.ERROR, referenceMethod.getName() + " is now throwing " + exception + ".", reference, newItem));
             }
         }
     }
-    
+
+    @Override
+    public Set<Facet> getRequiredFacets() {
+        return EnumSet.of(Facet.METHODS, Facet.EXCEPTIONS);
+    }
 }
@@ -15,15 +15,20 @@
  */
 package com.googlecode.japi.checker.rules;
 
+import java.util.EnumSet;
+import java.util.Set;
+
+import com.googlecode.japi.checker.Facet;
+import com.googlecode.japi.checker.FacetedRule;
+import com.googlecode.japi.checker.RemovedMemberRule;
 import com.googlecode.japi.checker.Reporter;
-import com.googlecode.japi.checker.Rule;
 import com.googlecode.japi.checker.Scope;
 import com.googlecode.japi.checker.Reporter.Report;
 import com.googlecode.japi.checker.model.ClassData;
 import com.googlecode.japi.checker.model.FieldData;
 import com.googlecode.japi.checker.model.JavaItem;
 
-public class CheckRemovedField implements Rule {
+public class CheckRemovedField implements FacetedRule, RemovedMemberRule {
 
     @Override
     public void checkBackwardCompatibility(Reporter reporter,
@@ -32,20 +37,22 @@ public class CheckRemovedField implements Rule {
             ClassData referenceClass = (ClassData)reference;
             ClassData newClass = (ClassData)newItem;
             for (FieldData oldField : referenceClass.getFields()) {
-                boolean found = false;
-                for (FieldData newField: newClass.getFields()) {
-                    if (oldField.isSame(newField)) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (!found && oldField.getVisibility() != Scope.PRIVATE) {
-                    reporter.report(new Report(Reporter.Level.ERROR, "Could not find " + oldField.getType() + " " + oldField.getName() + " in newer version.", reference, newItem));
+                if (newClass.findField(oldField.getName()) == null) {
+                    checkRemovedMember(reporter, oldField, newClass);
                 }
             }
         }
     }
 
-    
-    
+    @Override
+    public void checkRemovedMember(Reporter reporter, JavaItem referenceMember, ClassData newClass) {
+        if (referenceMember instanceof FieldData && referenceMember.getVisibility() != Scope.PRIVATE) {
+            reporter.report(new Report(Reporter.Level.ERROR, "Could not find " + referenceMember.getType() + " " + referenceMember.getName() + " in newer version.", referenceMember.getOwner(), newClass));
+        }
+    }
+
+    @Override
+    public Set<Facet> getRequiredFacets() {
+        return EnumSet.of(Facet.FIELDS);
+    }
 }
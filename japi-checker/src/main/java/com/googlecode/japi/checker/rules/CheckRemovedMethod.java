@@ -15,16 +15,21 @@
  */
 package com.googlecode.japi.checker.rules;
 
+import java.util.EnumSet;
+import java.util.Set;
+
+import com.googlecode.japi.checker.Facet;
+import com.googlecode.japi.checker.FacetedRule;
+import com.googlecode.japi.checker.RemovedMemberRule;
 import com.googlecode.japi.checker.Reporter;
 import com.googlecode.japi.checker.Reporter.Level;
 import com.googlecode.japi.checker.Reporter.Report;
 import com.googlecode.japi.checker.model.ClassData;
 import com.googlecode.japi.checker.model.JavaItem;
 import com.googlecode.japi.checker.model.MethodData;
-import com.googlecode.japi.checker.Rule;
 import com.googlecode.japi.checker.Scope;
 
-public class CheckRemovedMethod implements Rule {
+public class CheckRemovedMethod implements FacetedRule, RemovedMemberRule {
 
     @Override
     public void checkBackwardCompatibility(Reporter reporter,
@@ -33,18 +38,22 @@ public class CheckRemovedMethod implements Rule {
             ClassData referenceClass = (ClassData)reference;
             ClassData newClass = (ClassData)newItem;
             for (MethodData oldMethod : referenceClass.getMethods()) {
-                boolean found = false;
-                for (MethodData newMethod: newClass.getMethods()) {
-                    if (oldMethod.isSame(newMethod)) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (!found && oldMethod.getVisibility() != Scope.PRIVATE) {
-                    reporter.report(new Report(Level.ERROR, "Could not find " + oldMethod.getType() + " " + oldMethod.getName() + " in newer version.", reference, newItem));
+                if (newClass.findMethod(oldMethod.getName(), oldMethod.getDescriptor()) == null) {
+                    checkRemovedMember(reporter, oldMethod, newClass);
                 }
             }
         }
     }
-    
+
+    @Override
+    public void checkRemovedMember(Reporter reporter, JavaItem referenceMember, ClassData newClass) {
+        if (referenceMember instanceof MethodData && referenceMember.getVisibility() != Scope.PRIVATE) {
+            reporter.report(new Report(Level.ERROR, "Could not find " + referenceMember.getType() + " " + referenceMember.getName() + " in newer version.", referenceMember.getOwner(), newClass));
+        }
+    }
+
+    @Override
+    public Set<Facet> getRequiredFacets() {
+        return EnumSet.of(Facet.METHODS);
+    }
 }
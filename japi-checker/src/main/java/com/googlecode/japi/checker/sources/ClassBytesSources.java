@@ -0,0 +1,42 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker.sources;
+
+import java.io.File;
+
+import com.googlecode.japi.checker.ClassBytesSource;
+
+public final class ClassBytesSources {
+
+    private ClassBytesSources() { }
+
+    /**
+     * Creates the source matching a file: a directory, a jmod or an archive.
+     * @param file the artifact.
+     * @return the source reading the artifact.
+     * @throws IllegalArgumentException if the file is not a supported artifact.
+     */
+    public static ClassBytesSource forFile(File file) {
+        if (file.isDirectory()) {
+            return new DirectoryClassBytesSource(file);
+        } else if (file.getName().toLowerCase().endsWith(".jmod")) {
+            return new JmodClassBytesSource(file);
+        } else if (JarClassBytesSource.isArchive(file.getName())) {
+            return new JarClassBytesSource(file);
+        }
+        throw new IllegalArgumentException(file + " must be a directory, a jmod or an archive (jar, war, ear or zip)");
+    }
+}
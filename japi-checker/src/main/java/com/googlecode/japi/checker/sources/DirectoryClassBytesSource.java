@@ -0,0 +1,143 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker.sources;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.googlecode.japi.checker.ClassBytesSource;
+import com.googlecode.japi.checker.ClassChecksum;
+
+/**
+ * Reads the classes of a directory tree, e.g. target/classes. Each directory
+ * is listed with {@link Files#walkFileTree} and its entries sorted by name,
+ * so the classes are read in the same order on every file system. The
+ * directories refused by the filter are pruned, and each class is read in a single call.
+ * Archives found in the tree, e.g. in an exploded war, are read as nested archives.
+ */
+public class DirectoryClassBytesSource implements ClassBytesSource {
+    private final Path root;
+
+    public DirectoryClassBytesSource(File dir) {
+        this(dir.toPath());
+    }
+
+    /**
+     * @param root the root of the tree, possibly in a non default file system.
+     */
+    public DirectoryClassBytesSource(Path root) {
+        this.root = root;
+    }
+
+    @Override
+    public void read(final Filter filter, final Handler handler) throws IOException {
+        walk(filter, new Visitor() {
+            @Override
+            public void visitClass(String path, Path file, BasicFileAttributes attrs) throws IOException {
+                handler.handle(path, ByteBuffer.wrap(Files.readAllBytes(file)));
+            }
+
+            @Override
+            public void visitArchive(String path, Path file) throws IOException {
+                new JarClassBytesSource(file.toFile()).read(path + "!/", filter, handler);
+            }
+        });
+    }
+
+    @Override
+    public void readChecksums(final Filter filter, final Map<String, ClassChecksum> checksums) throws IOException {
+        walk(filter, new Visitor() {
+            @Override
+            public void visitClass(String path, final Path file, BasicFileAttributes attrs) {
+                checksums.put(path, new ClassChecksum(attrs.size()) {
+                    @Override
+                    protected long computeCrc() throws IOException {
+                        byte[] content = Files.readAllBytes(file);
+                        return crc(content, 0, content.length);
+                    }
+                });
+            }
+
+            @Override
+            public void visitArchive(String path, Path file) throws IOException {
+                new JarClassBytesSource(file.toFile()).readChecksums(path + "!/", filter, checksums);
+            }
+        });
+    }
+
+    private void walk(Filter filter, Visitor visitor) throws IOException {
+        walk(root, filter, visitor, root.getFileSystem() == FileSystems.getDefault());
+    }
+
+    private void walk(Path dir, Filter filter, Visitor visitor, boolean defaultFileSystem) throws IOException {
+        // the entries of the directory by name, with their attributes as read by the walk.
+        final SortedMap<String, BasicFileAttributes> entries = new TreeMap<String, BasicFileAttributes>();
+        Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                entries.put(file.getFileName().toString(), attrs);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        for (Map.Entry<String, BasicFileAttributes> entry : entries.entrySet()) {
+            Path file = dir.resolve(entry.getKey());
+            BasicFileAttributes attrs = entry.getValue();
+            String path = toPath(file);
+            if (attrs.isDirectory()) {
+                if (filter.enterDirectory(path)) {
+                    walk(file, filter, visitor, defaultFileSystem);
+                }
+            } else if (attrs.isRegularFile()) {
+                if (path.endsWith(".class")) {
+                    if (filter.accept(path)) {
+                        visitor.visitClass(path, file, attrs);
+                    }
+                } else if (defaultFileSystem && JarClassBytesSource.isArchive(path) && filter.enterArchive(path)) {
+                    visitor.visitArchive(path, file);
+                }
+            }
+        }
+    }
+
+    private String toPath(Path path) {
+        String separator = root.getFileSystem().getSeparator();
+        String result = root.relativize(path).toString();
+        return "/".equals(separator) ? result : result.replace(separator, "/");
+    }
+
+    @Override
+    public String toString() {
+        return root.toString();
+    }
+
+    private interface Visitor {
+        void visitClass(String path, Path file, BasicFileAttributes attrs) throws IOException;
+
+        void visitArchive(String path, Path file) throws IOException;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker.sources;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import com.googlecode.japi.checker.ClassBytesSource;
+import com.googlecode.japi.checker.ClassChecksum;
+import com.googlecode.japi.checker.utils.MappedJarReader;
+
+/**
+ * Reads the classes of a jar (or war, ear, zip) through a {@link MappedJarReader}.
+ * Nested archives stored uncompressed are read in place from the mapping,
+ * compressed ones are streamed.
+ */
+public class JarClassBytesSource implements ClassBytesSource {
+    private final File file;
+    private final String root;
+
+    public JarClassBytesSource(File file) {
+        this(file, "");
+    }
+
+    /**
+     * @param file the archive.
+     * @param root the directory of the archive holding the classes, stripped from their path.
+     */
+    protected JarClassBytesSource(File file, String root) {
+        this.file = file;
+        this.root = root;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void read(Filter filter, Handler handler) throws IOException {
+        read("", filter, handler);
+    }
+
+    void read(String prefix, Filter filter, Handler handler) throws IOException {
+        MappedJarReader reader = new MappedJarReader(file);
+        try {
+            read(reader, prefix, root, filter, handler);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void read(MappedJarReader reader, String prefix, String root, Filter filter, Handler handler) throws IOException {
+        for (MappedJarReader.Entry entry : reader.getEntries()) {
+            if (!entry.getName().startsWith(root)) {
+                continue;
+            }
+            String name = entry.getName().substring(root.length());
+            String path = prefix + name;
+            if (name.endsWith(".class") && filter.accept(path)) {
+                handler.handle(path, ByteBuffer.wrap(reader.read(entry), 0, (int)entry.getSize()));
+            } else if (isArchive(name) && filter.enterArchive(path)) {
+                MappedJarReader nested = reader.openNested(entry);
+                if (nested != null) {
+                    try {
+                        read(nested, path + "!/", "", filter, handler);
+                    } finally {
+                        nested.close();
+                    }
+                } else {
+                    ZipInputStream zis = new ZipInputStream(reader.getInputStream(entry));
+                    try {
+                        read(zis, path + "!/", filter, handler, new byte[2048]);
+                    } finally {
+                        // releases the native inflaters.
+                        zis.close();
+                    }
+                }
+            }
+        }
+    }
+
+    private static void read(ZipInputStream zis, String prefix, Filter filter, Handler handler, byte[] buffer) throws IOException {
+        ZipEntry entry = null;
+        while ((entry = zis.getNextEntry()) != null) {
+            String path = prefix + entry.getName();
+            if (entry.getName().endsWith(".class") && filter.accept(path)) {
+                int count = 0;
+                int n = 0;
+                while ((n = zis.read(buffer, count, buffer.length - count)) != -1) {
+                    count += n;
+                    if (count == buffer.length) {
+                        byte[] larger = new byte[buffer.length * 2];
+                        System.arraycopy(buffer, 0, larger, 0, count);
+                        buffer = larger;
+                    }
+                }
+                handler.handle(path, ByteBuffer.wrap(buffer, 0, count));
+            } else if (isArchive(entry.getName()) && filter.enterArchive(path)) {
+                // closing the nested stream releases its inflater, the outer stream being left open.
+                ZipInputStream nested = new ZipInputStream(new FilterInputStream(zis) {
+                    @Override
+                    public void close() {
+                    }
+                });
+                try {
+                    read(nested, path + "!/", filter, handler, buffer);
+                } finally {
+                    nested.close();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void readChecksums(Filter filter, Map<String, ClassChecksum> checksums) throws IOException {
+        readChecksums("", filter, checksums);
+    }
+
+    void readChecksums(String prefix, Filter filter, Map<String, ClassChecksum> checksums) throws IOException {
+        MappedJarReader reader = new MappedJarReader(file);
+        try {
+            readChecksums(reader, prefix, root, filter, checksums);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Only nested archives stored uncompressed have their checksums read,
+     * the classes of the others are always read.
+     */
+    private static void readChecksums(MappedJarReader reader, String prefix, String root, Filter filter, Map<String, ClassChecksum> checksums) throws IOException {
+        for (MappedJarReader.Entry entry : reader.getEntries()) {
+            if (!entry.getName().startsWith(root)) {
+                continue;
+            }
+            String name = entry.getName().substring(root.length());
+            String path = prefix + name;
+            if (name.endsWith(".class") && filter.accept(path)) {
+                checksums.put(path, new ClassChecksum(entry.getSize(), entry.getCrc()));
+            } else if (isArchive(name) && filter.enterArchive(path)) {
+                MappedJarReader nested = reader.openNested(entry);
+                if (nested != null) {
+                    try {
+                        readChecksums(nested, path + "!/", "", filter, checksums);
+                    } finally {
+                        nested.close();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param name a file name.
+     * @return true if the name is the one of an archive: jar, war, ear or zip.
+     */
+    public static boolean isArchive(String name) {
+        String lower = name.toLowerCase();
+        return lower.endsWith(".jar") || lower.endsWith(".war") || lower.endsWith(".ear") || lower.endsWith(".zip");
+    }
+
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+}
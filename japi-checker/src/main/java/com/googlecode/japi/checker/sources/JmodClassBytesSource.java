@@ -0,0 +1,30 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker.sources;
+
+import java.io.File;
+
+/**
+ * Reads the classes of a jmod file. A jmod is a zip archive prefixed by
+ * a 4 bytes header, its classes being stored under 'classes/'. The mapped
+ * reader handles the header as any data prepended to an archive.
+ */
+public class JmodClassBytesSource extends JarClassBytesSource {
+
+    public JmodClassBytesSource(File file) {
+        super(file, "classes/");
+    }
+}
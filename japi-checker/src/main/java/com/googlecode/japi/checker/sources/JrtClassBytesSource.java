@@ -0,0 +1,101 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker.sources;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ProviderNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.googlecode.japi.checker.ClassBytesSource;
+import com.googlecode.japi.checker.ClassChecksum;
+
+/**
+ * Reads the classes of modules of the running Java platform through the
+ * jrt:/ file system, which requires Java 9 or later.
+ * Paths are relative to the module root, e.g. 'java/lang/String.class'.
+ */
+public class JrtClassBytesSource implements ClassBytesSource {
+    private final List<String> modules;
+
+    /**
+     * @param modules the modules to read, all the modules of the platform if none is given.
+     */
+    public JrtClassBytesSource(String... modules) {
+        this.modules = Arrays.asList(modules);
+    }
+
+    @Override
+    public void read(Filter filter, Handler handler) throws IOException {
+        for (Path root : getModuleRoots()) {
+            new DirectoryClassBytesSource(root).read(filter, handler);
+        }
+    }
+
+    @Override
+    public void readChecksums(Filter filter, Map<String, ClassChecksum> checksums) throws IOException {
+        for (Path root : getModuleRoots()) {
+            new DirectoryClassBytesSource(root).readChecksums(filter, checksums);
+        }
+    }
+
+    private List<Path> getModuleRoots() throws IOException {
+        FileSystem jrt = null;
+        try {
+            jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        } catch (FileSystemNotFoundException e) {
+            throw new IOException("The jrt:/ file system is not available, Java 9 or later is required.");
+        } catch (ProviderNotFoundException e) {
+            throw new IOException("The jrt:/ file system is not available, Java 9 or later is required.");
+        }
+        List<Path> roots = new ArrayList<Path>();
+        if (modules.isEmpty()) {
+            DirectoryStream<Path> stream = Files.newDirectoryStream(jrt.getPath("/modules"));
+            try {
+                for (Path module : stream) {
+                    roots.add(module);
+                }
+            } finally {
+                stream.close();
+            }
+            Collections.sort(roots);
+        } else {
+            for (String module : modules) {
+                Path root = jrt.getPath("/modules", module);
+                if (!Files.isDirectory(root)) {
+                    throw new IOException("Unknown module " + module + ".");
+                }
+                roots.add(root);
+            }
+        }
+        return roots;
+    }
+
+    @Override
+    public String toString() {
+        return "jrt:/" + (modules.isEmpty() ? "" : modules.toString());
+    }
+}
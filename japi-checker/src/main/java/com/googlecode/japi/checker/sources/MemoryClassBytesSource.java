@@ -0,0 +1,68 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker.sources;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.googlecode.japi.checker.ClassBytesSource;
+import com.googlecode.japi.checker.ClassChecksum;
+
+/**
+ * Provides classes already held in memory, e.g. by a build tool which
+ * just compiled them. Classes are read in the order of their paths.
+ */
+public class MemoryClassBytesSource implements ClassBytesSource {
+    private final Map<String, byte[]> classes;
+
+    /**
+     * @param classes the content of the class files, by path (e.g. 'com/foo/Bar.class'),
+     *        copied so the classes are read in the same order whatever the map.
+     */
+    public MemoryClassBytesSource(Map<String, byte[]> classes) {
+        this.classes = new TreeMap<String, byte[]>(classes);
+    }
+
+    @Override
+    public void read(Filter filter, Handler handler) throws IOException {
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            if (entry.getKey().endsWith(".class") && filter.accept(entry.getKey())) {
+                handler.handle(entry.getKey(), ByteBuffer.wrap(entry.getValue()));
+            }
+        }
+    }
+
+    @Override
+    public void readChecksums(Filter filter, Map<String, ClassChecksum> checksums) {
+        for (final Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            if (entry.getKey().endsWith(".class") && filter.accept(entry.getKey())) {
+                checksums.put(entry.getKey(), new ClassChecksum(entry.getValue().length) {
+                    @Override
+                    protected long computeCrc() {
+                        return crc(entry.getValue(), 0, entry.getValue().length);
+                    }
+                });
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "memory:" + classes.size() + " classes";
+    }
+}
@@ -33,6 +33,7 @@ public class AntPatternMatcher {
     private boolean casesensitive = true;
     private String expression;
     private Pattern pattern;
+    private AntPatternMatcher directoryMatcher;
 
     public AntPatternMatcher(String expression) {
         this.setExpression(expression);
@@ -73,6 +74,11 @@ public class AntPatternMatcher {
             flags = Pattern.CASE_INSENSITIVE;
         }
         this.pattern = Pattern.compile(AntPatternMatcher.convertToRegexp(expression), flags);
+        this.directoryMatcher = null;
+        String normalized = expression.replace('\\', '/');
+        if (normalized.endsWith("/**") && normalized.length() > 3) {
+            this.directoryMatcher = new AntPatternMatcher(normalized.substring(0, normalized.length() - 3), casesensitive);
+        }
     }
 
 
@@ -103,6 +109,17 @@ public class AntPatternMatcher {
         return pattern.matcher(path.getPath().replace('/', File.separatorChar).replace('\\', File.separatorChar)).matches();
     }
     
+    /**
+     * Tells if the expression matches every path under a directory,
+     * which is the case of expressions like 'prefix/**' whose prefix
+     * matches the directory. 
+     * @param directory the directory path.
+     * @return true if anything under the directory matches the expression.
+     */
+    public boolean matchesAllUnder(String directory) {
+        return directoryMatcher != null && directoryMatcher.matches(directory);
+    }
+    
     /**
      * Convert an Ant Pattern into a regular expression.
      * It supports the following patterns:
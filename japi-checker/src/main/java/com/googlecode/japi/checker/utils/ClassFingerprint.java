@@ -0,0 +1,282 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker.utils;
+
+/**
+ * Computes a 64 bits fingerprint of the API of a class file, straight from
+ * its bytes: header, interfaces, fields, methods, their signatures, exceptions
+ * and constant values, and the inner class table. The code of the methods,
+ * their line numbers, the source file and other attributes are ignored, so
+ * classes whose changes are limited to method bodies share their fingerprint.
+ * Constant pool references are hashed through the values they point to, and
+ * members are combined whatever their order, so a class recompiled with a
+ * different constant pool layout keeps its fingerprint.
+ */
+public final class ClassFingerprint {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final byte[] b;
+    private final int end;
+    // offset of each constant pool entry, 0 for the unused ones.
+    private final int[] items;
+    private int pos;
+    private long hash;
+
+    private ClassFingerprint(byte[] b, int off, int len) {
+        this.b = b;
+        this.end = off + len;
+        if (len < 10 || readInt(off) != MAGIC) {
+            throw new IllegalArgumentException("Not a class file.");
+        }
+        items = new int[readUnsignedShort(off + 8)];
+        pos = off + 10;
+        for (int i = 1; i < items.length; i++) {
+            check(1);
+            items[i] = pos;
+            switch (b[pos]) {
+            case 1: // Utf8
+                check(3);
+                pos += 3 + readUnsignedShort(pos + 1);
+                break;
+            case 3: // Integer
+            case 4: // Float
+            case 9: // Fieldref
+            case 10: // Methodref
+            case 11: // InterfaceMethodref
+            case 12: // NameAndType
+            case 17: // Dynamic
+            case 18: // InvokeDynamic
+                pos += 5;
+                break;
+            case 5: // Long
+            case 6: // Double
+                pos += 9;
+                i++;
+                break;
+            case 15: // MethodHandle
+                pos += 4;
+                break;
+            case 7: // Class
+            case 8: // String
+            case 16: // MethodType
+            case 19: // Module
+            case 20: // Package
+                pos += 3;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid constant pool tag " + b[pos] + ".");
+            }
+        }
+    }
+
+    /**
+     * Computes the API fingerprint of a class.
+     * @param b the buffer holding the class file.
+     * @param off the offset of the class file in the buffer.
+     * @param len the length of the class file.
+     * @return the fingerprint.
+     * @throws IllegalArgumentException if the buffer does not contain a valid class file.
+     */
+    public static long compute(byte[] b, int off, int len) {
+        return new ClassFingerprint(b, off, len).compute(off);
+    }
+
+    private long compute(int off) {
+        hash = FNV_OFFSET;
+        // minor and major versions.
+        hashBytes(off + 4, 4);
+        check(8);
+        hashShort(readUnsignedShort(pos)); // access
+        hashConstant(readUnsignedShort(pos + 2)); // this class
+        hashConstant(readUnsignedShort(pos + 4)); // super class
+        int interfaceCount = readUnsignedShort(pos + 6);
+        pos += 8;
+        check(2 * interfaceCount);
+        hashShort(interfaceCount);
+        for (int i = 0; i < interfaceCount; i++) {
+            hashConstant(readUnsignedShort(pos));
+            pos += 2;
+        }
+        long classHash = hash;
+        long members = 0;
+        for (int kind = 0; kind < 2; kind++) {
+            check(2);
+            int count = readUnsignedShort(pos);
+            pos += 2;
+            for (int i = 0; i < count; i++) {
+                check(8);
+                hash = FNV_OFFSET;
+                hashShort(kind);
+                hashShort(readUnsignedShort(pos)); // access
+                hashConstant(readUnsignedShort(pos + 2)); // name
+                hashConstant(readUnsignedShort(pos + 4)); // descriptor
+                pos += 6;
+                hashAttributes();
+                // summed, so the order of the members does not matter.
+                members += mix(hash);
+            }
+        }
+        hash = classHash;
+        hashAttributes();
+        return mix(hash) + members;
+    }
+
+    /**
+     * Hashes the attributes the model is built from, skipping the others.
+     */
+    private void hashAttributes() {
+        check(2);
+        int count = readUnsignedShort(pos);
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            check(6);
+            int name = readUnsignedShort(pos);
+            int length = readInt(pos + 2);
+            pos += 6;
+            if (length < 0 || pos + length > end) {
+                throw new IllegalArgumentException("Truncated attribute.");
+            }
+            if (isUtf8(name, "Signature") || isUtf8(name, "ConstantValue")) {
+                if (length < 2) {
+                    throw new IllegalArgumentException("Truncated attribute.");
+                }
+                hashConstant(name);
+                hashConstant(readUnsignedShort(pos));
+            } else if (isUtf8(name, "Exceptions")) {
+                hashConstant(name);
+                hashTable(pos, length, 1);
+            } else if (isUtf8(name, "InnerClasses")) {
+                hashConstant(name);
+                hashTable(pos, length, 4);
+            } else if (isUtf8(name, "Deprecated") || isUtf8(name, "Synthetic")) {
+                // turned into access flags by the parser.
+                hashConstant(name);
+            }
+            pos += length;
+        }
+    }
+
+    /**
+     * Hashes a table of entries made of constant pool indexes, the last one
+     * of a multi-index entry being hashed as a number, e.g. access flags.
+     */
+    private void hashTable(int start, int length, int width) {
+        int count = length < 2 ? 0 : readUnsignedShort(start);
+        if (length < 2 || 2 + 2 * width * count > length) {
+            throw new IllegalArgumentException("Truncated attribute.");
+        }
+        hashShort(count);
+        int p = start + 2;
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < width; j++) {
+                int value = readUnsignedShort(p);
+                if (width > 1 && j == width - 1) {
+                    hashShort(value);
+                } else {
+                    hashConstant(value);
+                }
+                p += 2;
+            }
+        }
+    }
+
+    /**
+     * Hashes the value of a constant, 0 standing for none.
+     */
+    private void hashConstant(int index) {
+        if (index == 0 || index >= items.length || items[index] == 0) {
+            hashShort(0);
+            return;
+        }
+        int item = items[index];
+        int tag = b[item];
+        hashShort(tag);
+        switch (tag) {
+        case 1: // Utf8
+            int length = readUnsignedShort(item + 1);
+            hashShort(length);
+            hashBytes(item + 3, length);
+            break;
+        case 7: // Class
+        case 8: // String
+        case 16: // MethodType
+        case 19: // Module
+        case 20: // Package
+            hashConstant(readUnsignedShort(item + 1));
+            break;
+        case 5: // Long
+        case 6: // Double
+            hashBytes(item + 1, 8);
+            break;
+        default:
+            hashBytes(item + 1, 4);
+        }
+    }
+
+    private boolean isUtf8(int index, String value) {
+        if (index == 0 || index >= items.length || items[index] == 0 || b[items[index]] != 1) {
+            return false;
+        }
+        int item = items[index];
+        if (readUnsignedShort(item + 1) != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (b[item + 3 + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void hashShort(int value) {
+        hash = (hash ^ (value & 0xFF)) * FNV_PRIME;
+        hash = (hash ^ ((value >>> 8) & 0xFF)) * FNV_PRIME;
+    }
+
+    private void hashBytes(int start, int length) {
+        for (int i = start; i < start + length; i++) {
+            hash = (hash ^ (b[i] & 0xFF)) * FNV_PRIME;
+        }
+    }
+
+    /**
+     * Finalizes a hash, so sums of member hashes do not cancel out.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    private void check(int length) {
+        if (pos + length > end) {
+            throw new IllegalArgumentException("Truncated class file.");
+        }
+    }
+
+    private int readUnsignedShort(int p) {
+        return ((b[p] & 0xFF) << 8) | (b[p + 1] & 0xFF);
+    }
+
+    private int readInt(int p) {
+        return ((b[p] & 0xFF) << 24) | ((b[p + 1] & 0xFF) << 16) | ((b[p + 2] & 0xFF) << 8) | (b[p + 3] & 0xFF);
+    }
+}
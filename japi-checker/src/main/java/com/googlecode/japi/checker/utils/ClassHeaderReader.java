@@ -0,0 +1,92 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker.utils;
+
+/**
+ * Reads the access flags of a class file without parsing it: the constant
+ * pool is skipped entry by entry, nothing is decoded or allocated.
+ */
+public final class ClassHeaderReader {
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private ClassHeaderReader() { }
+
+    /**
+     * Reads the access flags of a class.
+     * @param b the buffer holding the class file.
+     * @param off the offset of the class file in the buffer.
+     * @param len the length of the class file.
+     * @return the access flags of the class.
+     * @throws IllegalArgumentException if the buffer does not contain a valid class header.
+     */
+    public static int readAccess(byte[] b, int off, int len) {
+        int end = off + len;
+        if (len < 10 || readInt(b, off) != MAGIC) {
+            throw new IllegalArgumentException("Not a class file.");
+        }
+        int count = readUnsignedShort(b, off + 8);
+        int pos = off + 10;
+        for (int i = 1; i < count; i++) {
+            if (pos >= end) {
+                throw new IllegalArgumentException("Truncated constant pool.");
+            }
+            switch (b[pos]) {
+            case 1: // Utf8
+                pos += 3 + readUnsignedShort(b, pos + 1);
+                break;
+            case 3: // Integer
+            case 4: // Float
+            case 9: // Fieldref
+            case 10: // Methodref
+            case 11: // InterfaceMethodref
+            case 12: // NameAndType
+            case 17: // Dynamic
+            case 18: // InvokeDynamic
+                pos += 5;
+                break;
+            case 5: // Long
+            case 6: // Double
+                pos += 9;
+                i++;
+                break;
+            case 15: // MethodHandle
+                pos += 4;
+                break;
+            case 7: // Class
+            case 8: // String
+            case 16: // MethodType
+            case 19: // Module
+            case 20: // Package
+                pos += 3;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid constant pool tag " + b[pos] + ".");
+            }
+        }
+        if (pos + 2 > end) {
+            throw new IllegalArgumentException("Truncated class header.");
+        }
+        return readUnsignedShort(b, pos);
+    }
+
+    private static int readUnsignedShort(byte[] b, int pos) {
+        return ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+    }
+
+    private static int readInt(byte[] b, int pos) {
+        return ((b[pos] & 0xFF) << 24) | ((b[pos + 1] & 0xFF) << 16) | ((b[pos + 2] & 0xFF) << 8) | (b[pos + 3] & 0xFF);
+    }
+}
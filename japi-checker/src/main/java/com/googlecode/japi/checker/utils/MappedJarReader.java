@@ -0,0 +1,416 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker.utils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Reads a jar by memory mapping it: the central directory is parsed
+ * directly from the mapped region, stored entries are copied straight
+ * from it and deflated entries are inflated into a reusable buffer.
+ *
+ * Instances are not thread safe, the buffer returned by {@link #read(Entry)}
+ * is only valid until the next read.
+ */
+public class MappedJarReader implements Closeable {
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int END_SIZE = 22;
+    private static final int CENTRAL_SIZE = 46;
+    private static final int LOCAL_SIZE = 30;
+    // deflate cannot expand data more than about 1032 times.
+    private static final long MAX_DEFLATE_RATIO = 1032;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String name;
+    private final RandomAccessFile raf;
+    private final ByteBuffer map;
+    private final List<Entry> entries;
+    private final Inflater inflater = new Inflater(true);
+    private byte[] input = new byte[0];
+    private byte[] output = new byte[0];
+
+    public MappedJarReader(File file) throws IOException {
+        this.name = file.toString();
+        this.raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to be mapped.");
+            }
+            this.map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            this.map.order(ByteOrder.LITTLE_ENDIAN);
+            this.entries = Collections.unmodifiableList(readCentralDirectory());
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        } catch (RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private MappedJarReader(String name, ByteBuffer map) throws IOException {
+        this.name = name;
+        this.raf = null;
+        this.map = map;
+        this.map.order(ByteOrder.LITTLE_ENDIAN);
+        this.entries = Collections.unmodifiableList(readCentralDirectory());
+    }
+
+    /**
+     * @return the entries of the archive, in central directory order.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Reads the content of an entry. The returned array is reused by the
+     * next call, only its first {@link Entry#getSize()} bytes are meaningful.
+     * @param entry the entry to read.
+     * @return the buffer holding the content of the entry.
+     * @throws IOException if the entry is corrupted or uses an unsupported method.
+     */
+    public byte[] read(Entry entry) throws IOException {
+        int offset = getDataOffset(entry);
+        int size = checkSize(entry, offset);
+        if (output.length < size) {
+            output = new byte[size];
+        }
+        if (entry.getMethod() == ZipEntry.STORED) {
+            map.position(offset);
+            map.get(output, 0, size);
+        } else if (entry.getMethod() == ZipEntry.DEFLATED) {
+            int compressedSize = (int)entry.getCompressedSize();
+            // The inflater needs an extra dummy byte when using nowrap.
+            if (input.length < compressedSize + 1) {
+                input = new byte[compressedSize + 1];
+            }
+            map.position(offset);
+            map.get(input, 0, compressedSize);
+            input[compressedSize] = 0;
+            inflater.reset();
+            inflater.setInput(input, 0, compressedSize + 1);
+            try {
+                int count = 0;
+                while (count < size && !inflater.finished()) {
+                    int n = inflater.inflate(output, count, size - count);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    count += n;
+                }
+                if (count != size) {
+                    throw new IOException("Invalid entry size for " + entry.getName() + " in " + name);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Invalid compressed data for " + entry.getName() + " in " + name + ": " + e.getMessage());
+            }
+        } else {
+            throw new IOException("Unsupported compression method " + entry.getMethod() + " for " + entry.getName() + " in " + name);
+        }
+        return output;
+    }
+
+    /**
+     * Opens an archive stored uncompressed inside this one, in place: the
+     * returned reader works directly on the region of the mapping holding it.
+     * Closing it does not close this reader.
+     * @param entry an archive entry.
+     * @return a reader on the nested archive, or null if it is compressed and must be streamed.
+     * @throws IOException if the nested archive is invalid.
+     */
+    public MappedJarReader openNested(Entry entry) throws IOException {
+        if (entry.getMethod() != ZipEntry.STORED) {
+            return null;
+        }
+        int offset = getDataOffset(entry);
+        int size = checkSize(entry, offset);
+        ByteBuffer slice = map.duplicate();
+        slice.limit(offset + size);
+        slice.position(offset);
+        return new MappedJarReader(name + "!/" + entry.getName(), slice.slice());
+    }
+
+    /**
+     * Streams the content of an entry straight from the mapped region,
+     * without loading it entirely. The stream must be consumed before
+     * the reader is closed.
+     * @param entry the entry to stream.
+     * @return the uncompressed content of the entry.
+     * @throws IOException if the entry uses an unsupported method.
+     */
+    public InputStream getInputStream(Entry entry) throws IOException {
+        int offset = getDataOffset(entry);
+        checkSize(entry, offset);
+        ByteBuffer data = map.duplicate();
+        data.limit(offset + (int)entry.getCompressedSize());
+        data.position(offset);
+        if (entry.getMethod() == ZipEntry.STORED) {
+            return new ByteBufferInputStream(data);
+        } else if (entry.getMethod() == ZipEntry.DEFLATED) {
+            return new EntryInflaterInputStream(new ByteBufferInputStream(data));
+        }
+        throw new IOException("Unsupported compression method " + entry.getMethod() + " for " + entry.getName() + " in " + name);
+    }
+
+    public void close() throws IOException {
+        inflater.end();
+        if (raf != null) {
+            raf.close();
+        }
+    }
+
+    private int getDataOffset(Entry entry) throws IOException {
+        if (entry.dataOffset < 0) {
+            int local = entry.localOffset;
+            if (local < 0 || local > map.limit() - LOCAL_SIZE || map.getInt(local) != LOCAL_SIGNATURE) {
+                throw new IOException("Invalid local header for " + entry.getName() + " in " + name);
+            }
+            entry.dataOffset = local + LOCAL_SIZE + (map.getShort(local + 26) & 0xffff) + (map.getShort(local + 28) & 0xffff);
+        }
+        return entry.dataOffset;
+    }
+
+    /**
+     * Corrupted sizes or offsets must not escape as buffer underflows.
+     */
+    /**
+     * Checks the sizes of an entry against its data, before anything is
+     * allocated for it.
+     * @return the uncompressed size of the entry.
+     */
+    private int checkSize(Entry entry, int offset) throws IOException {
+        long size = entry.getSize();
+        long compressedSize = entry.getCompressedSize();
+        if (size < 0 || size > Integer.MAX_VALUE || compressedSize < 0 || compressedSize > Integer.MAX_VALUE
+                || (entry.getMethod() == ZipEntry.STORED && size != compressedSize)
+                || (entry.getMethod() == ZipEntry.DEFLATED && size > compressedSize * MAX_DEFLATE_RATIO)) {
+            throw new IOException("Invalid entry size for " + entry.getName() + " in " + name);
+        }
+        checkData(entry, offset, compressedSize);
+        return (int)size;
+    }
+
+    private void checkData(Entry entry, int offset, long length) throws IOException {
+        if (length > map.limit() - offset) {
+            throw new IOException("Truncated entry " + entry.getName() + " in " + name);
+        }
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        int end = findEndOfCentralDirectory();
+        int count = map.getShort(end + 10) & 0xffff;
+        long size = map.getInt(end + 12) & 0xffffffffL;
+        long offset = map.getInt(end + 16) & 0xffffffffL;
+        if (count == 0xffff || size == 0xffffffffL || offset == 0xffffffffL) {
+            throw new IOException("ZIP64 archives are not supported: " + name);
+        }
+        // Data prepended to the archive (e.g. jmod header) shifts every offset.
+        long base = end - size - offset;
+        if (base < 0 || size > end) {
+            throw new IOException("Invalid central directory in " + name);
+        }
+        List<Entry> result = new ArrayList<Entry>(count);
+        int pos = (int)(base + offset);
+        byte[] nameBytes = new byte[256];
+        for (int i = 0; i < count; i++) {
+            if (pos + CENTRAL_SIZE > end || map.getInt(pos) != CENTRAL_SIGNATURE) {
+                throw new IOException("Invalid central directory in " + name);
+            }
+            int nameLength = map.getShort(pos + 28) & 0xffff;
+            int extraLength = map.getShort(pos + 30) & 0xffff;
+            int commentLength = map.getShort(pos + 32) & 0xffff;
+            long compressedSize = map.getInt(pos + 20) & 0xffffffffL;
+            long uncompressedSize = map.getInt(pos + 24) & 0xffffffffL;
+            long localOffset = map.getInt(pos + 42) & 0xffffffffL;
+            if (compressedSize == 0xffffffffL || uncompressedSize == 0xffffffffL || localOffset == 0xffffffffL) {
+                throw new IOException("ZIP64 archives are not supported: " + name);
+            }
+            if (pos + CENTRAL_SIZE + nameLength > end || base + localOffset > end) {
+                throw new IOException("Invalid central directory in " + name);
+            }
+            if (nameBytes.length < nameLength) {
+                nameBytes = new byte[nameLength];
+            }
+            map.position(pos + CENTRAL_SIZE);
+            map.get(nameBytes, 0, nameLength);
+            result.add(new Entry(new String(nameBytes, 0, nameLength, UTF8),
+                    map.getShort(pos + 10) & 0xffff,
+                    map.getInt(pos + 16) & 0xffffffffL,
+                    compressedSize, uncompressedSize,
+                    (int)(base + localOffset)));
+            pos += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+        }
+        return result;
+    }
+
+    private int findEndOfCentralDirectory() throws IOException {
+        int limit = Math.max(0, map.limit() - END_SIZE - 0xffff);
+        for (int pos = map.limit() - END_SIZE; pos >= limit; pos--) {
+            if (map.getInt(pos) == END_SIGNATURE) {
+                return pos;
+            }
+        }
+        throw new IOException("Could not find the central directory of " + name);
+    }
+
+    /**
+     * An entry of the central directory.
+     */
+    public static class Entry {
+        private final String name;
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final int localOffset;
+        private int dataOffset = -1;
+
+        Entry(String name, int method, long crc, long compressedSize, long size, int localOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localOffset = localOffset;
+        }
+
+        /**
+         * @return the name of the entry.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the compression method, {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}.
+         */
+        public int getMethod() {
+            return method;
+        }
+
+        /**
+         * @return the CRC-32 of the uncompressed data.
+         */
+        public long getCrc() {
+            return crc;
+        }
+
+        /**
+         * @return the compressed size.
+         */
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * @return the uncompressed size.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Inflates raw deflate data, providing the extra dummy byte
+     * the inflater needs when using nowrap.
+     */
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean eof;
+
+        EntryInflaterInputStream(InputStream in) {
+            super(in, new Inflater(true), 2048);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of compressed data.");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            inf.end();
+            super.close();
+        }
+    }
+}
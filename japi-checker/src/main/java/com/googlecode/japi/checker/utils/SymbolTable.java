@@ -0,0 +1,172 @@
+/*
+ * Copyright 2011 William Bernardet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.japi.checker.utils;
+
+/**
+ * Maps the symbols of the model (names, descriptors, signatures) to int ids,
+ * so items sharing a table hold a single copy of each symbol and compare them
+ * by id. Ids are allocated sequentially, the lookup uses an open addressing
+ * table of ids with linear probing.
+ * The table is shared by the threads parsing the artifacts, so it is synchronized.
+ *
+ * A table may extend a parent table which is not modified anymore, e.g. the
+ * one of a snapshot shared by several checks: the symbols of the parent keep
+ * their ids, the other ones are only added to the extending table.
+ */
+public class SymbolTable {
+    /** The id of the null symbol. */
+    public static final int NO_SYMBOL = -1;
+
+    private final SymbolTable parent;
+    // ids below base are the ones of the parent.
+    private final int base;
+    private String[] symbols = new String[256];
+    private int[] hashes = new int[256];
+    // id - base + 1 of the symbol stored in each slot, 0 for a free slot.
+    private int[] slots = new int[512];
+    private int size;
+
+    public SymbolTable() {
+        this(null);
+    }
+
+    /**
+     * @param parent the table to extend, or null.
+     */
+    public SymbolTable(SymbolTable parent) {
+        this.parent = parent;
+        this.base = parent == null ? 0 : parent.size();
+    }
+
+    /**
+     * @param symbol a symbol, possibly null.
+     * @return the id of the symbol, added to the table if needed.
+     */
+    public synchronized int intern(String symbol) {
+        if (symbol == null) {
+            return NO_SYMBOL;
+        }
+        int id = lookupParent(symbol);
+        if (id != NO_SYMBOL) {
+            return id;
+        }
+        int hash = symbol.hashCode();
+        int index = find(symbol, hash);
+        if (slots[index] != 0) {
+            return base + slots[index] - 1;
+        }
+        if (size == symbols.length) {
+            String[] largerSymbols = new String[size * 2];
+            System.arraycopy(symbols, 0, largerSymbols, 0, size);
+            symbols = largerSymbols;
+            int[] largerHashes = new int[size * 2];
+            System.arraycopy(hashes, 0, largerHashes, 0, size);
+            hashes = largerHashes;
+        }
+        id = size++;
+        symbols[id] = symbol;
+        hashes[id] = hash;
+        slots[index] = id + 1;
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return base + id;
+    }
+
+    /**
+     * Looks a symbol up without adding it, so lookups of foreign names do
+     * not grow the table.
+     * @param symbol a symbol, possibly null.
+     * @return the id of the symbol, or {@link #NO_SYMBOL} if it is not in the table.
+     */
+    public synchronized int lookup(String symbol) {
+        if (symbol == null) {
+            return NO_SYMBOL;
+        }
+        int id = lookupParent(symbol);
+        if (id != NO_SYMBOL) {
+            return id;
+        }
+        int slot = slots[find(symbol, symbol.hashCode())];
+        return slot == 0 ? NO_SYMBOL : base + slot - 1;
+    }
+
+    /**
+     * @param id the id of a symbol, or {@link #NO_SYMBOL}.
+     * @return the symbol.
+     */
+    public synchronized String get(int id) {
+        if (id == NO_SYMBOL) {
+            return null;
+        }
+        return id < base ? parent.get(id) : symbols[id - base];
+    }
+
+    /**
+     * @return the number of symbols in the table.
+     */
+    public synchronized int size() {
+        return base + size;
+    }
+
+    private int lookupParent(String symbol) {
+        if (parent == null) {
+            return NO_SYMBOL;
+        }
+        // symbols the parent would have got since are not visible.
+        int id = parent.lookup(symbol);
+        return id < base ? id : NO_SYMBOL;
+    }
+
+    /**
+     * @return the slot of the symbol, or the free slot where to add it.
+     */
+    private int find(String symbol, int hash) {
+        int mask = slots.length - 1;
+        int index = mix(hash) & mask;
+        int slot = 0;
+        while ((slot = slots[index]) != 0) {
+            if (hashes[slot - 1] == hash && symbols[slot - 1].equals(symbol)) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void rehash(int capacity) {
+        int[] newSlots = new int[capacity];
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int index = mix(hashes[id]) & mask;
+            while (newSlots[index] != 0) {
+                index = (index + 1) & mask;
+            }
+            newSlots[index] = id + 1;
+        }
+        slots = newSlots;
+    }
+
+    /**
+     * Spreads the bits of String hash codes, whose low bits are poorly
+     * distributed for symbols sharing a long prefix.
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        return hash ^ (hash >>> 13);
+    }
+}
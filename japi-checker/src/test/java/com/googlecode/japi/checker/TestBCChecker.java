@@ -16,21 +16,61 @@
 package com.googlecode.japi.checker;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Handler;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 
 import com.googlecode.japi.checker.Reporter.Level;
+import com.googlecode.japi.checker.Reporter.Report;
+import com.googlecode.japi.checker.diff.DiffEngine;
+import com.googlecode.japi.checker.diff.DiffListener;
+import com.googlecode.japi.checker.diff.RuleDiffListener;
+import com.googlecode.japi.checker.model.AttributeData;
+import com.googlecode.japi.checker.model.ClassData;
+import com.googlecode.japi.checker.model.FieldData;
+import com.googlecode.japi.checker.model.InnerClassData;
+import com.googlecode.japi.checker.model.JavaItem;
 import com.googlecode.japi.checker.model.MethodData;
+import com.googlecode.japi.checker.model.PackedModel;
+import com.googlecode.japi.checker.rules.AllRules;
 import com.googlecode.japi.checker.rules.CheckChangeOfScope;
 import com.googlecode.japi.checker.rules.CheckFieldChangeOfType;
 import com.googlecode.japi.checker.rules.CheckFieldChangeToStatic;
@@ -44,9 +84,21 @@ import com.googlecode.japi.checker.rules.ClassChangedToAbstract;
 import com.googlecode.japi.checker.rules.ClassChangedToFinal;
 import com.googlecode.japi.checker.rules.ClassChangedToInterface;
 import com.googlecode.japi.checker.rules.InterfaceChangedToClass;
+import com.googlecode.japi.checker.sources.JmodClassBytesSource;
+import com.googlecode.japi.checker.sources.JrtClassBytesSource;
+import com.googlecode.japi.checker.sources.DirectoryClassBytesSource;
+import com.googlecode.japi.checker.sources.MemoryClassBytesSource;
+import com.googlecode.japi.checker.utils.ClassFingerprint;
+import com.googlecode.japi.checker.utils.ClassHeaderReader;
+import com.googlecode.japi.checker.utils.MappedJarReader;
+import com.googlecode.japi.checker.utils.SymbolTable;
 
 public class TestBCChecker {
+    // bytes allocated to parse a class of the test artifacts and build its model.
+    private static final long PARSING_BUDGET = 16 * 1024;
     
+    @org.junit.Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
     private File reference;
     private File newVersion;
     private Handler handler = new Handler() {
@@ -251,6 +303,1267 @@ public class TestBCChecker {
         reporter.assertContains(Level.ERROR, "The class com/googlecode/japi/checker/tests/InterfaceToClass has been change into an interface.");
     }
 
+    @Test
+    public void testParallelReadingMatchesSequentialReading() throws IOException {
+        BCChecker sequential = new BCChecker(reference, newVersion);
+        BasicReporter sequentialReporter = new BasicReporter();
+        sequential.checkBacwardCompatibility(sequentialReporter, allRules());
+        
+        BCChecker parallel = new BCChecker(reference, newVersion);
+        parallel.setThreads(4);
+        BasicReporter parallelReporter = new BasicReporter();
+        parallel.checkBacwardCompatibility(parallelReporter, allRules());
+        
+        assertEquals(sequentialReporter.toStrings(), parallelReporter.toStrings());
+    }
+
+    @Test
+    public void testPipelinedCheckMatchesSequentialCheck() throws IOException {
+        BasicReporter sequentialReporter = new BasicReporter();
+        new BCChecker(reference, newVersion).checkBacwardCompatibility(sequentialReporter, allRules());
+        List<String> expected = sequentialReporter.toStrings();
+        Collections.sort(expected);
+        
+        for (int depth : new int[] {1, 16}) {
+            BCChecker checker = new BCChecker(reference, newVersion);
+            checker.setPipelineDepth(depth);
+            BasicReporter reporter = new BasicReporter();
+            checker.checkBacwardCompatibility(reporter, allRules());
+            List<String> actual = reporter.toStrings();
+            Collections.sort(actual);
+            assertEquals(expected, actual);
+        }
+        
+        BCChecker checker = new BCChecker(reference, temporaryFolder.newFile("corrupted.jar"));
+        checker.setPipelineDepth(1);
+        try {
+            checker.checkBacwardCompatibility(new BasicReporter(), allRules());
+            fail("The corrupted jar should not be read.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testParallelCheckKeepsSequentialOrder() throws IOException {
+        BasicReporter sequentialReporter = new BasicReporter();
+        new BCChecker(reference, newVersion).checkBacwardCompatibility(sequentialReporter, allRules());
+        List<String> expected = sequentialReporter.toStrings();
+        
+        for (int checkThreads : new int[] {2, 8}) {
+            BCChecker checker = new BCChecker(reference, newVersion);
+            checker.setCheckThreads(checkThreads);
+            BasicReporter reporter = new BasicReporter();
+            checker.checkBacwardCompatibility(reporter, allRules());
+            // not sorted, the order must be the same.
+            assertEquals(expected, reporter.toStrings());
+        }
+    }
+
+    @Test
+    public void testMaxErrors() throws IOException {
+        BasicReporter fullReporter = new BasicReporter();
+        new BCChecker(reference, newVersion).checkBacwardCompatibility(fullReporter, allRules());
+        List<String> errors = errors(fullReporter);
+        assertTrue(errors.size() > 2);
+        
+        for (int checkThreads : new int[] {1, 4}) {
+            BCChecker checker = new BCChecker(reference, newVersion);
+            checker.setMaxErrors(1);
+            checker.setCheckThreads(checkThreads);
+            BasicReporter reporter = new BasicReporter();
+            checker.checkBacwardCompatibility(reporter, allRules());
+            assertTrue(checker.isErrorLimitReached());
+            // removed public classes are checked first.
+            assertEquals(1, errors(reporter).size());
+            assertTrue(errors(reporter).get(0), errors(reporter).get(0).endsWith("has been removed."));
+        }
+        
+        BCChecker pipelined = new BCChecker(reference, newVersion);
+        pipelined.setMaxErrors(2);
+        pipelined.setPipelineDepth(4);
+        BasicReporter pipelinedReporter = new BasicReporter();
+        pipelined.checkBacwardCompatibility(pipelinedReporter, allRules());
+        assertTrue(pipelined.isErrorLimitReached());
+        assertEquals(2, errors(pipelinedReporter).size());
+        
+        BCChecker full = new BCChecker(reference, newVersion);
+        full.setMaxErrors(errors.size() + 1);
+        BasicReporter reporter = new BasicReporter();
+        full.checkBacwardCompatibility(reporter, allRules());
+        assertTrue(!full.isErrorLimitReached());
+        List<String> actual = errors(reporter);
+        Collections.sort(actual);
+        Collections.sort(errors);
+        assertEquals(errors, actual);
+    }
+
+    private static List<String> errors(BasicReporter reporter) {
+        List<String> errors = new ArrayList<String>();
+        for (String report : reporter.toStrings()) {
+            if (report.startsWith("ERROR")) {
+                errors.add(report);
+            }
+        }
+        return errors;
+    }
+
+    @Test
+    public void testClassFingerprint() throws IOException {
+        byte[] clazz = generate("foo/Generated", false, false, new String[] {"foo", "bar"}, null);
+        long fingerprint = ClassFingerprint.compute(clazz, 0, clazz.length);
+        // a different method body, constant pool layout or member order keeps the fingerprint.
+        byte[] body = generate("foo/Generated", true, false, new String[] {"foo", "bar"}, null);
+        assertEquals(fingerprint, ClassFingerprint.compute(body, 0, body.length));
+        byte[] order = generate("foo/Generated", false, false, new String[] {"bar", "foo"}, null);
+        assertEquals(fingerprint, ClassFingerprint.compute(order, 0, order.length));
+        byte[] padded = new byte[clazz.length + 8];
+        System.arraycopy(clazz, 0, padded, 4, clazz.length);
+        assertEquals(fingerprint, ClassFingerprint.compute(padded, 4, clazz.length));
+        // API changes do not.
+        byte[] finalMethod = generate("foo/Generated", false, true, new String[] {"foo", "bar"}, null);
+        assertTrue(fingerprint != ClassFingerprint.compute(finalMethod, 0, finalMethod.length));
+        byte[] exception = generate("foo/Generated", false, false, new String[] {"foo", "bar"}, "java/io/IOException");
+        assertTrue(fingerprint != ClassFingerprint.compute(exception, 0, exception.length));
+        byte[] removed = generate("foo/Generated", false, false, new String[] {"foo"}, null);
+        assertTrue(fingerprint != ClassFingerprint.compute(removed, 0, removed.length));
+        try {
+            ClassFingerprint.compute(clazz, 0, clazz.length / 2);
+            fail("A truncated class should not be fingerprinted.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        
+        // the test artifacts only hold API changes.
+        BasicReporter fullReporter = new BasicReporter();
+        new BCChecker(reference, newVersion).checkBacwardCompatibility(fullReporter, allRules());
+        BCChecker checker = new BCChecker(reference, newVersion);
+        checker.setSkipUnchangedApiClasses(true);
+        BasicReporter reporter = new BasicReporter();
+        checker.checkBacwardCompatibility(reporter, allRules());
+        assertEquals(fullReporter.toStrings(), reporter.toStrings());
+        assertEquals(0, checker.getUnchangedApiClassCount());
+        
+        Map<String, byte[]> referenceClasses = new LinkedHashMap<String, byte[]>();
+        referenceClasses.put("foo/Body.class", generate("foo/Body", false, false, new String[] {"foo"}, null));
+        referenceClasses.put("foo/Api.class", generate("foo/Api", false, false, new String[] {"foo"}, null));
+        Map<String, byte[]> newClasses = new LinkedHashMap<String, byte[]>();
+        newClasses.put("foo/Body.class", generate("foo/Body", true, false, new String[] {"foo"}, null));
+        newClasses.put("foo/Api.class", generate("foo/Api", false, true, new String[] {"foo"}, null));
+        checker = new BCChecker(new MemoryClassBytesSource(referenceClasses), new MemoryClassBytesSource(newClasses));
+        checker.setSkipUnchangedApiClasses(true);
+        reporter = new BasicReporter();
+        checker.checkBacwardCompatibility(reporter, allRules());
+        assertEquals(1, checker.getUnchangedApiClassCount());
+        assertEquals(1, errors(reporter).size());
+        assertTrue(errors(reporter).get(0), errors(reporter).get(0).contains("foo/Api"));
+    }
+
+    @Test
+    public void testApiTree() throws IOException {
+        ApiTree referenceTree = ApiTree.build(new MemoryClassBytesSource(load(reference)), ACCEPT_ALL);
+        ApiTree newTree = ApiTree.build(new MemoryClassBytesSource(load(newVersion)), ACCEPT_ALL);
+        assertTrue(referenceTree.getRootHash() != newTree.getRootHash());
+        assertEquals(Collections.emptySet(), referenceTree.findUnchangedPackages(newTree));
+        
+        File file = temporaryFolder.newFile("reference.apitree");
+        referenceTree.setArtifactCrc(ClassChecksum.crc(reference));
+        referenceTree.write(file);
+        ApiTree read = ApiTree.read(file);
+        assertEquals(ClassChecksum.crc(reference), read.getArtifactCrc());
+        assertEquals(referenceTree.getRootHash(), read.getRootHash());
+        assertEquals(referenceTree.getClassCount(), read.getClassCount());
+        assertEquals(referenceTree.getPackages(), read.findUnchangedPackages(referenceTree));
+        assertEquals(Collections.emptySet(), read.findUnchangedClasses(referenceTree));
+        
+        // a body change only descends into its package.
+        Map<String, Long> fingerprints = new HashMap<String, Long>();
+        fingerprints.put("foo/A.class", 1L);
+        fingerprints.put("foo/B.class", 2L);
+        fingerprints.put("bar/C.class", 3L);
+        ApiTree before = new ApiTree(fingerprints);
+        fingerprints.put("foo/B.class", 4L);
+        ApiTree after = new ApiTree(fingerprints);
+        assertEquals(Collections.singleton("bar"), before.findUnchangedPackages(after));
+        assertEquals(Collections.singleton("foo/A.class"), before.findUnchangedClasses(after));
+        
+        // checking an artifact against itself stops at the root hash.
+        BCChecker checker = new BCChecker(reference, reference);
+        checker.setSkipUnchangedApiClasses(true);
+        checker.setReferenceApiTree(read);
+        BasicReporter reporter = new BasicReporter();
+        checker.checkBacwardCompatibility(reporter, allRules());
+        assertEquals(0, reporter.toStrings().size());
+        assertEquals(referenceTree.getClassCount(), checker.getUnchangedApiClassCount());
+        
+        // a class which cannot be fingerprinted keeps its package, and the tree, changed.
+        Map<String, byte[]> classes = new HashMap<String, byte[]>();
+        classes.put("foo/A.class", generate("foo/A", false, false, new String[] {"a"}, null));
+        classes.put("foo/Bad.class", new byte[] {(byte)0xCA, (byte)0xFE, (byte)0xBA, (byte)0xBE, 0, 0});
+        classes.put("bar/C.class", generate("bar/C", false, false, new String[] {"c"}, null));
+        ApiTree incomplete = ApiTree.build(new MemoryClassBytesSource(classes), ACCEPT_ALL);
+        assertTrue(!incomplete.isComplete());
+        assertEquals(Collections.singleton("foo/Bad.class"), incomplete.getChangedClasses());
+        assertEquals(Collections.singleton("bar"), incomplete.findUnchangedPackages(incomplete));
+        assertEquals(Collections.singleton("foo/A.class"), incomplete.findUnchangedClasses(incomplete));
+        incomplete.write(file);
+        assertEquals(incomplete.getChangedClasses(), ApiTree.read(file).getChangedClasses());
+        checker = new BCChecker(new MemoryClassBytesSource(classes), new MemoryClassBytesSource(classes));
+        checker.setSkipUnchangedApiClasses(true);
+        try {
+            checker.checkBacwardCompatibility(new BasicReporter(), allRules());
+            fail("The class which cannot be fingerprinted must still be parsed.");
+        } catch (RuntimeException e) {
+            // expected, reported by the parser.
+        }
+    }
+
+    @Test
+    public void testApiSnapshot() throws IOException {
+        PackedApiSnapshot snapshot = PackedApiSnapshot.build(new MemoryClassBytesSource(load(reference)), ACCEPT_ALL);
+        snapshot.setOrigin("com.googlecode.japi-checker:reference-test-jar:jar:0.1.0", 42);
+        File file = temporaryFolder.newFile("reference.apisnapshot");
+        snapshot.write(file);
+        ApiSnapshot read = PackedApiSnapshot.read(file);
+        assertEquals(snapshot.getOrigin(), read.getOrigin());
+        assertEquals(42, read.getOriginCrc());
+        assertEquals(snapshot.size(), read.size());
+        for (int i = 0; i < snapshot.size(); i++) {
+            assertEquals(snapshot.getPath(i), read.getPath(i));
+            assertEquals(snapshot.getFingerprint(i), read.getFingerprint(i));
+            ClassData clazz = snapshot.get(i);
+            ClassData readClazz = read.get(i);
+            assertEquals(clazz.getName(), readClazz.getName());
+            assertEquals(clazz.getSuperName(), readClazz.getSuperName());
+            assertEquals(clazz.getFields().size(), readClazz.getFields().size());
+            assertEquals(clazz.getMethods().size(), readClazz.getMethods().size());
+        }
+        assertEquals(snapshot.getApiTree(ACCEPT_ALL).getRootHash(), read.getApiTree(ACCEPT_ALL).getRootHash());
+        
+        BasicReporter objectReporter = new BasicReporter();
+        new BCChecker(reference, newVersion).checkBacwardCompatibility(objectReporter, allRules());
+        List<String> expected = objectReporter.toStrings();
+        Collections.sort(expected);
+        int symbolCount = read.getSymbols().size();
+        for (boolean packed : new boolean[] {false, true}) {
+            BCChecker checker = new BCChecker(read, new MemoryClassBytesSource(load(newVersion)));
+            checker.setPackedModel(packed);
+            BasicReporter reporter = new BasicReporter();
+            checker.checkBacwardCompatibility(reporter, allRules());
+            List<String> actual = reporter.toStrings();
+            Collections.sort(actual);
+            assertEquals(expected, actual);
+        }
+        // the checks and lookups do not add their symbols to the shared snapshot.
+        assertEquals(-1, read.indexOf("com/googlecode/japi/checker/tests/Unknown"));
+        assertEquals(symbolCount, read.getSymbols().size());
+    }
+
+    @Test
+    public void testMappedApiSnapshot() throws IOException {
+        PackedApiSnapshot snapshot = PackedApiSnapshot.build(new MemoryClassBytesSource(load(reference)), ACCEPT_ALL);
+        snapshot.setOrigin("com.googlecode.japi-checker:reference-test-jar:jar:0.1.0", 42);
+        File file = temporaryFolder.newFile("reference.apimap");
+        MappedApiSnapshot.write(snapshot, file);
+        MappedApiSnapshot mapped = MappedApiSnapshot.open(file);
+        assertEquals(snapshot.getOrigin(), mapped.getOrigin());
+        assertEquals(42, mapped.getOriginCrc());
+        assertEquals(snapshot.size(), mapped.size());
+        for (int i = 0; i < snapshot.size(); i++) {
+            assertEquals(snapshot.getName(i), mapped.getName(i));
+            assertEquals(i, mapped.indexOf(snapshot.getName(i)));
+            assertEquals(snapshot.getPath(i), mapped.getPath(i));
+            assertEquals(snapshot.getAccess(i), mapped.getAccess(i));
+            assertEquals(snapshot.getFingerprint(i), mapped.getFingerprint(i));
+            assertTrue(snapshot.getChecksum(i).matches(mapped.getChecksum(i)));
+            ClassData clazz = snapshot.get(i);
+            ClassData view = mapped.get(i);
+            assertEquals(clazz.getSuperName(), view.getSuperName());
+            assertEquals(clazz.getInterfaces(), view.getInterfaces());
+            assertEquals(clazz.getSource(), view.getSource());
+            assertEquals(clazz.getFields().size(), view.getFields().size());
+            for (int j = 0; j < clazz.getFields().size(); j++) {
+                assertEquals(clazz.getFields().get(j).getValue(), view.getFields().get(j).getValue());
+            }
+            assertEquals(clazz.getMethods().size(), view.getMethods().size());
+            for (int j = 0; j < clazz.getMethods().size(); j++) {
+                assertTrue(clazz.getMethods().get(j).isSame(view.getMethods().get(j)));
+                assertEquals(clazz.getMethods().get(j).getExceptions(), view.getMethods().get(j).getExceptions());
+                assertEquals(clazz.getMethods().get(j).getLineNumber(), view.getMethods().get(j).getLineNumber());
+            }
+            assertEquals(clazz.getInnerClasses().size(), view.getInnerClasses().size());
+        }
+        assertEquals(-1, mapped.indexOf("com/googlecode/japi/checker/tests/Unknown"));
+        
+        BasicReporter objectReporter = new BasicReporter();
+        new BCChecker(reference, newVersion).checkBacwardCompatibility(objectReporter, allRules());
+        List<String> expected = objectReporter.toStrings();
+        Collections.sort(expected);
+        int symbolCount = mapped.getSymbols().size();
+        for (boolean packed : new boolean[] {false, true}) {
+            BCChecker checker = new BCChecker(mapped, new MemoryClassBytesSource(load(newVersion)));
+            checker.setPackedModel(packed);
+            BasicReporter reporter = new BasicReporter();
+            checker.checkBacwardCompatibility(reporter, allRules());
+            List<String> actual = reporter.toStrings();
+            Collections.sort(actual);
+            assertEquals(expected, actual);
+        }
+        assertEquals(symbolCount, mapped.getSymbols().size());
+    }
+
+    @Test
+    public void testSnapshotStore() throws IOException {
+        List<Map<String, byte[]>> versions = new ArrayList<Map<String, byte[]>>();
+        Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+        classes.put("foo/A.class", generate("foo/A", false, false, new String[] {"a"}, null));
+        classes.put("foo/B.class", generate("foo/B", false, false, new String[] {"a", "b"}, null));
+        classes.put("bar/C.class", generate("bar/C", false, false, new String[] {"c"}, null));
+        versions.add(classes);
+        // a body change, a removed and an added method, a removed and an added class.
+        classes = new LinkedHashMap<String, byte[]>(classes);
+        classes.put("foo/A.class", generate("foo/A", true, false, new String[] {"a"}, null));
+        classes.put("foo/B.class", generate("foo/B", false, false, new String[] {"a", "d"}, null));
+        classes.remove("bar/C.class");
+        classes.put("bar/D.class", generate("bar/D", false, false, new String[] {"d"}, null));
+        versions.add(classes);
+        classes = new LinkedHashMap<String, byte[]>(classes);
+        classes.put("foo/A.class", generate("foo/A", true, true, new String[] {"a"}, null));
+        classes.put("foo/B.class", generate("foo/B", false, false, new String[] {"a", "d"}, "java/io/IOException"));
+        versions.add(classes);
+        classes = new LinkedHashMap<String, byte[]>(classes);
+        classes.put("foo/B.class", generate("foo/B", false, false, new String[] {"a"}, null));
+        classes.put("bar/E.class", generate("bar/E", false, false, new String[] {"e"}, null));
+        versions.add(classes);
+        
+        File directory = new File(temporaryFolder.getRoot(), "store");
+        SnapshotStore store = new SnapshotStore(directory, 2);
+        for (int i = 0; i < versions.size(); i++) {
+            store.add("1." + i, PackedApiSnapshot.build(new MemoryClassBytesSource(versions.get(i)), ACCEPT_ALL));
+        }
+        assertEquals(Arrays.asList("1.0", "1.1", "1.2", "1.3"), store.getVersions());
+        assertTrue(new File(directory, "0.japs").isFile());
+        assertTrue(new File(directory, "1.japd").isFile());
+        assertTrue(new File(directory, "2.japs").isFile());
+        assertTrue(new File(directory, "3.japd").isFile());
+        // the store is read with the interval it has been created with.
+        store = new SnapshotStore(directory, 3);
+        assertEquals(2, store.getCheckpointInterval());
+        
+        for (int i = 0; i < versions.size(); i++) {
+            ApiSnapshot expected = PackedApiSnapshot.build(new MemoryClassBytesSource(versions.get(i)), ACCEPT_ALL);
+            ApiSnapshot loaded = store.load("1." + i);
+            assertEquals(expected.size(), loaded.size());
+            for (int j = 0; j < expected.size(); j++) {
+                int k = loaded.indexOf(expected.getName(j));
+                assertTrue(k >= 0);
+                assertEquals(expected.getPath(j), loaded.getPath(k));
+                assertTrue(expected.getChecksum(j).matches(loaded.getChecksum(k)));
+                assertEquals(expected.getFingerprint(j), loaded.getFingerprint(k));
+                assertEquals(describe(expected.get(j)), describe(loaded.get(k)));
+            }
+        }
+        try {
+            store.add("1.3", store.load("1.3"));
+            fail("A version can only be stored once.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testModelCache() throws IOException {
+        ModelCache cache = new ModelCache();
+        Map<String, ClassData> first = new HashMap<String, ClassData>();
+        Map<String, ClassData> second = new HashMap<String, ClassData>();
+        for (Map<String, ClassData> version : Arrays.asList(first, second)) {
+            // the classes are interned as soon as parsed.
+            ClassDumper dumper = new ClassDumper(EnumSet.allOf(Facet.class), cache.getSymbols(), cache);
+            new ClassReader(generate("foo/A", false, false, new String[] {"a"}, null)).accept(dumper, 0);
+            new ClassReader(generate("foo/B", false, version == second, new String[] {"a", "b"}, null)).accept(dumper, 0);
+            for (ClassData clazz : dumper.getClasses()) {
+                version.put(clazz.getName(), clazz);
+            }
+        }
+        // the unchanged class is shared, the changed one is not.
+        assertTrue(first.get("foo/A") == second.get("foo/A"));
+        assertTrue(first.get("foo/B") != second.get("foo/B"));
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getHitCount());
+        // clearing the cache releases its symbols too.
+        SymbolTable symbols = cache.getSymbols();
+        cache.clear();
+        assertTrue(symbols != cache.getSymbols());
+        assertEquals(0, cache.size());
+        
+        // a bounded cache evicts the least recently used classes.
+        ModelCache bounded = new ModelCache(1);
+        ClassDumper dumper = new ClassDumper(EnumSet.allOf(Facet.class), bounded.getSymbols(), bounded);
+        new ClassReader(generate("foo/A", false, false, new String[] {"a"}, null)).accept(dumper, 0);
+        new ClassReader(generate("foo/B", false, false, new String[] {"a", "b"}, null)).accept(dumper, 0);
+        assertEquals(1, bounded.size());
+        // classes with colliding fingerprints are evicted too.
+        bounded = new ModelCache(2);
+        for (String attribute : new String[] {null, "x", "y"}) {
+            ClassData clazz = new ClassData(bounded.getSymbols(), null, Opcodes.ACC_PUBLIC, "foo/C", null, "java/lang/Object", new String[0], Opcodes.V1_6);
+            if (attribute != null) {
+                clazz.add(new AttributeData(clazz, 0, attribute));
+            }
+            bounded.intern(clazz);
+            assertTrue(bounded.size() <= 2);
+        }
+        
+        BasicReporter objectReporter = new BasicReporter();
+        new BCChecker(reference, newVersion).checkBacwardCompatibility(objectReporter, allRules());
+        List<String> expected = objectReporter.toStrings();
+        Collections.sort(expected);
+        int size = 0;
+        long hits = 0;
+        for (int i = 0; i < 2; i++) {
+            BCChecker checker = new BCChecker(reference, newVersion);
+            checker.setApiOnly(false);
+            checker.setModelCache(cache);
+            BasicReporter reporter = new BasicReporter();
+            checker.checkBacwardCompatibility(reporter, allRules());
+            List<String> actual = reporter.toStrings();
+            Collections.sort(actual);
+            assertEquals(expected, actual);
+            if (i == 0) {
+                size = cache.size();
+                hits = cache.getHitCount();
+            }
+        }
+        // checking the same versions again only reuses the interned classes.
+        assertEquals(size, cache.size());
+        assertEquals(2 * hits + size, cache.getHitCount());
+    }
+
+    /**
+     * @return the sorted members of a class, with their attributes.
+     */
+    private static List<String> describe(ClassData clazz) {
+        List<String> members = new ArrayList<String>();
+        members.add(clazz.getName() + " " + clazz.getAccess() + " " + clazz.getSuperName() + " " + clazz.getSource());
+        for (FieldData field : clazz.getFields()) {
+            members.add(field.getName() + field.getDescriptor() + " " + field.getAccess() + " " + field.getValue());
+        }
+        for (MethodData method : clazz.getMethods()) {
+            members.add(method.getName() + method.getDescriptor() + " " + method.getAccess() + " " + method.getExceptions()
+                    + " " + method.getLineNumber());
+        }
+        for (InnerClassData innerClass : clazz.getInnerClasses()) {
+            members.add(innerClass.getName() + " " + innerClass.getAccess());
+        }
+        Collections.sort(members);
+        return members;
+    }
+
+    /**
+     * Generates a class declaring the given void methods, with either of two bodies.
+     */
+    private static byte[] generate(String name, boolean otherBody, boolean finalMethods, String[] methods, String exception) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        cw.visitSource(name.substring(name.lastIndexOf('/') + 1) + ".java", null);
+        cw.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "MAX", "I", null, Integer.valueOf(10)).visitEnd();
+        for (String method : methods) {
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | (finalMethods ? Opcodes.ACC_FINAL : 0), method, "()V", null,
+                    exception == null ? null : new String[] {exception});
+            mv.visitCode();
+            if (otherBody) {
+                mv.visitLdcInsn("changed");
+                mv.visitInsn(Opcodes.POP);
+            }
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    @Test
+    public void testApiOnlyResolvesLineNumbersOfPrefixedClasses() throws IOException {
+        Map<String, byte[]> referenceClasses = new HashMap<String, byte[]>();
+        referenceClasses.put("WEB-INF/classes/foo/A.class", generateWithLine("foo/A", false, 42));
+        Map<String, byte[]> newClasses = new HashMap<String, byte[]>();
+        newClasses.put("WEB-INF/classes/foo/A.class", generateWithLine("foo/A", true, 42));
+        BCChecker checker = new BCChecker(new MemoryClassBytesSource(referenceClasses), new MemoryClassBytesSource(newClasses));
+        checker.setApiOnly(true);
+        BasicReporter reporter = new BasicReporter();
+        checker.checkBacwardCompatibility(reporter, allRules());
+        int methodReports = 0;
+        for (Report report : reporter.getMessages()) {
+            if (report.newItem instanceof MethodData) {
+                assertEquals(42, ((MethodData)report.newItem).getLineNumber());
+                methodReports++;
+            }
+        }
+        assertTrue(methodReports > 0);
+    }
+
+    /**
+     * @return a class with a single method 'run', whose code is at the given line.
+     */
+    private static byte[] generateWithLine(String name, boolean finalMethod, int line) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | (finalMethod ? Opcodes.ACC_FINAL : 0), "run", "()V", null, null);
+        mv.visitCode();
+        Label start = new Label();
+        mv.visitLabel(start);
+        mv.visitLineNumber(line, start);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    @Test
+    public void testApiOnlyResolvesLineNumbers() throws IOException {
+        BasicReporter fullReporter = new BasicReporter();
+        new BCChecker(reference, newVersion).checkBacwardCompatibility(fullReporter, allRules());
+        List<String> expected = fullReporter.toStrings();
+        
+        BCChecker checker = new BCChecker(reference, newVersion);
+        checker.setApiOnly(true);
+        BasicReporter reporter = new BasicReporter();
+        checker.checkBacwardCompatibility(reporter, allRules());
+        assertEquals(expected, reporter.toStrings());
+        
+        Collections.sort(expected);
+        checker.setPipelineDepth(8);
+        reporter = new BasicReporter();
+        checker.checkBacwardCompatibility(reporter, allRules());
+        List<String> actual = reporter.toStrings();
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testRuleFacetsLimitParsing() throws IOException {
+        assertEquals(EnumSet.of(Facet.METHODS, Facet.EXCEPTIONS),
+                Facet.requiredBy(Arrays.asList(new ClassChangedToFinal(), new CheckMethodException())));
+        assertEquals(EnumSet.of(Facet.FIELDS, Facet.METHODS, Facet.EXCEPTIONS), Facet.requiredBy(allRules()));
+        
+        // a rule not declaring its facets gets the complete model.
+        final Rule narrowRules = new CheckMethodException();
+        Rule undeclared = new Rule() {
+            public void checkBackwardCompatibility(Reporter reporter, JavaItem reference, JavaItem newItem) {
+                narrowRules.checkBackwardCompatibility(reporter, reference, newItem);
+            }
+        };
+        assertEquals(EnumSet.allOf(Facet.class), Facet.requiredBy(Collections.singletonList(undeclared)));
+        BasicReporter fullReporter = new BasicReporter();
+        new BCChecker(reference, newVersion).checkBacwardCompatibility(fullReporter, Collections.singletonList(undeclared));
+        BasicReporter reporter = new BasicReporter();
+        new BCChecker(reference, newVersion).checkBacwardCompatibility(reporter, Collections.singletonList(narrowRules));
+        assertTrue(fullReporter.count(Level.ERROR) > 0);
+        assertEquals(fullReporter.toStrings(), reporter.toStrings());
+        
+        ZipFile zip = new ZipFile(newVersion);
+        try {
+            ZipEntry entry = zip.getEntry("com/googlecode/japi/checker/tests/CheckMethodException.class");
+            ClassReader cr = new ClassReader(readFully(zip.getInputStream(entry)));
+            ClassDumper dumper = new ClassDumper(EnumSet.noneOf(Facet.class));
+            cr.accept(dumper, dumper.getParsingOptions());
+            ClassData clazz = dumper.getClassData(cr.getClassName());
+            assertEquals(0, clazz.getMethods().size());
+            assertEquals("CheckMethodException.java", clazz.getSource());
+        } finally {
+            zip.close();
+        }
+    }
+
+    @Test
+    public void testPackedModel() throws IOException {
+        BasicReporter objectReporter = new BasicReporter();
+        new BCChecker(reference, newVersion).checkBacwardCompatibility(objectReporter, allRules());
+        List<String> expected = objectReporter.toStrings();
+        Collections.sort(expected);
+        
+        for (int threads : new int[] {1, 4}) {
+            BCChecker checker = new BCChecker(reference, newVersion);
+            checker.setPackedModel(true);
+            checker.setThreads(threads);
+            BasicReporter reporter = new BasicReporter();
+            checker.checkBacwardCompatibility(reporter, allRules());
+            List<String> actual = reporter.toStrings();
+            Collections.sort(actual);
+            assertEquals(expected, actual);
+        }
+        
+        SymbolTable symbols = new SymbolTable();
+        PackedModel model = new PackedModel(symbols);
+        ClassDumper dumper = new ClassDumper(EnumSet.allOf(Facet.class), symbols);
+        for (byte[] bytes : load(newVersion).values()) {
+            new ClassReader(bytes).accept(dumper, 0);
+        }
+        for (ClassData clazz : dumper.getClasses()) {
+            model.add(clazz);
+        }
+        for (ClassData clazz : dumper.getClasses()) {
+            int index = model.indexOf(clazz.getNameId());
+            ClassData view = model.get(index);
+            assertEquals(clazz.getName(), view.getName());
+            assertEquals(clazz.getVisibility(), view.getVisibility());
+            assertEquals(clazz.isFinal(), view.isFinal());
+            assertEquals(clazz.getSuperName(), view.getSuperName());
+            assertEquals(clazz.getInterfaces(), view.getInterfaces());
+            assertEquals(clazz.getSource(), view.getSource());
+            assertEquals(clazz.getFields().size(), view.getFields().size());
+            assertEquals(clazz.getMethods().size(), view.getMethods().size());
+            for (int i = 0; i < clazz.getMethods().size(); i++) {
+                MethodData method = clazz.getMethods().get(i);
+                MethodData viewMethod = view.getMethods().get(i);
+                assertTrue(method.isSame(viewMethod));
+                assertEquals(method.getExceptions(), viewMethod.getExceptions());
+                assertEquals(method.getLineNumber(), viewMethod.getLineNumber());
+                assertEquals(method.isStatic(), viewMethod.isStatic());
+            }
+        }
+    }
+
+    @Test
+    public void testSkipIdenticalClasses() throws IOException {
+        BCChecker checker = new BCChecker(reference, reference);
+        checker.setSkipIdenticalClasses(true);
+        BasicReporter reporter = new BasicReporter();
+        checker.checkBacwardCompatibility(reporter, allRules());
+        assertEquals(0, reporter.getMessages().size());
+        assertTrue(checker.getIdenticalClassCount() > 0);
+        
+        BCChecker all = new BCChecker(reference, newVersion);
+        BasicReporter allReporter = new BasicReporter();
+        all.checkBacwardCompatibility(allReporter, allRules());
+        BCChecker skipping = new BCChecker(reference, newVersion);
+        skipping.setSkipIdenticalClasses(true);
+        BasicReporter skippingReporter = new BasicReporter();
+        skipping.checkBacwardCompatibility(skippingReporter, allRules());
+        assertEquals(allReporter.count(Level.ERROR), skippingReporter.count(Level.ERROR));
+    }
+
+    @Test
+    public void testDirectoryScanning() throws IOException {
+        File referenceDir = extract(reference, temporaryFolder.newFolder("reference"));
+        File newDir = extract(newVersion, temporaryFolder.newFolder("new"));
+        
+        BasicReporter jarReporter = new BasicReporter();
+        new BCChecker(reference, newVersion).checkBacwardCompatibility(jarReporter, allRules());
+        BasicReporter dirReporter = new BasicReporter();
+        new BCChecker(referenceDir, newDir).checkBacwardCompatibility(dirReporter, allRules());
+        BCChecker parallel = new BCChecker(referenceDir, newDir);
+        parallel.setThreads(4);
+        BasicReporter parallelReporter = new BasicReporter();
+        parallel.checkBacwardCompatibility(parallelReporter, allRules());
+        
+        List<String> expected = jarReporter.toStrings();
+        Collections.sort(expected);
+        List<String> actual = dirReporter.toStrings();
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+        assertEquals(dirReporter.toStrings(), parallelReporter.toStrings());
+
+        BCChecker excluding = new BCChecker(referenceDir, newDir);
+        excluding.addExclude("com/googlecode/japi/checker/**");
+        BasicReporter excludingReporter = new BasicReporter();
+        excluding.checkBacwardCompatibility(excludingReporter, allRules());
+        assertEquals(0, excludingReporter.getMessages().size());
+    }
+
+    @Test
+    public void testNestedArchives() throws IOException {
+        BasicReporter jarReporter = new BasicReporter();
+        new BCChecker(reference, newVersion).checkBacwardCompatibility(jarReporter, allRules());
+        List<String> expected = jarReporter.toStrings();
+        Collections.sort(expected);
+        
+        for (int method : new int[] {ZipEntry.STORED, ZipEntry.DEFLATED}) {
+            File referenceWar = wrap(reference, method, temporaryFolder.newFile("reference" + method + ".war"));
+            File newWar = wrap(newVersion, method, temporaryFolder.newFile("new" + method + ".war"));
+            for (int threads : new int[] {1, 4}) {
+                BCChecker checker = new BCChecker(referenceWar, newWar);
+                checker.setNestedArchives(true);
+                checker.setThreads(threads);
+                BasicReporter reporter = new BasicReporter();
+                checker.checkBacwardCompatibility(reporter, allRules());
+                List<String> actual = reporter.toStrings();
+                Collections.sort(actual);
+                assertEquals(expected, actual);
+            }
+        }
+        
+        // a compressed archive inside a compressed archive is streamed from the outer stream.
+        File referenceEar = wrap(wrap(reference, ZipEntry.DEFLATED, temporaryFolder.newFile("reference-inner.war")),
+                ZipEntry.DEFLATED, temporaryFolder.newFile("reference.ear"));
+        File newEar = wrap(wrap(newVersion, ZipEntry.DEFLATED, temporaryFolder.newFile("new-inner.war")),
+                ZipEntry.DEFLATED, temporaryFolder.newFile("new.ear"));
+        BCChecker earChecker = new BCChecker(referenceEar, newEar);
+        earChecker.setNestedArchives(true);
+        BasicReporter earReporter = new BasicReporter();
+        earChecker.checkBacwardCompatibility(earReporter, allRules());
+        List<String> actual = earReporter.toStrings();
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+        
+        File referenceWar = wrap(reference, ZipEntry.STORED, temporaryFolder.newFile("reference.war"));
+        File newWar = wrap(newVersion, ZipEntry.STORED, temporaryFolder.newFile("new.war"));
+        BCChecker checker = new BCChecker(referenceWar, newWar);
+        checker.setNestedArchives(true);
+        checker.addInclude("WEB-INF/lib/*.jar!/**/RemovedClass.class");
+        BasicReporter reporter = new BasicReporter();
+        checker.checkBacwardCompatibility(reporter, null);
+        assertEquals(1, reporter.count(Level.ERROR));
+        
+        checker = new BCChecker(referenceWar, newWar);
+        BasicReporter notNestedReporter = new BasicReporter();
+        checker.checkBacwardCompatibility(notNestedReporter, allRules());
+        assertEquals(0, notNestedReporter.getMessages().size());
+    }
+
+    private static File wrap(File jar, int method, File war) throws IOException {
+        byte[] content = readFully(new FileInputStream(jar));
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(war));
+        try {
+            ZipEntry entry = new ZipEntry("WEB-INF/lib/library.jar");
+            entry.setMethod(method);
+            if (method == ZipEntry.STORED) {
+                CRC32 crc = new CRC32();
+                crc.update(content);
+                entry.setSize(content.length);
+                entry.setCompressedSize(content.length);
+                entry.setCrc(crc.getValue());
+            }
+            zos.putNextEntry(entry);
+            zos.write(content);
+            zos.closeEntry();
+        } finally {
+            zos.close();
+        }
+        return war;
+    }
+
+    private static File extract(File jar, File dir) throws IOException {
+        ZipFile zip = new ZipFile(jar);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                File file = new File(dir, entry.getName());
+                if (entry.isDirectory()) {
+                    file.mkdirs();
+                } else {
+                    file.getParentFile().mkdirs();
+                    FileOutputStream os = new FileOutputStream(file);
+                    try {
+                        os.write(readFully(zip.getInputStream(entry)));
+                    } finally {
+                        os.close();
+                    }
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        return dir;
+    }
+
+    @Test
+    public void testClassBytesSources() throws IOException {
+        BasicReporter jarReporter = new BasicReporter();
+        new BCChecker(reference, newVersion).checkBacwardCompatibility(jarReporter, allRules());
+        List<String> expected = jarReporter.toStrings();
+        Collections.sort(expected);
+        
+        for (int threads : new int[] {1, 4}) {
+            BCChecker checker = new BCChecker(new MemoryClassBytesSource(load(reference)), new MemoryClassBytesSource(load(newVersion)));
+            checker.setThreads(threads);
+            BasicReporter reporter = new BasicReporter();
+            checker.checkBacwardCompatibility(reporter, allRules());
+            List<String> actual = reporter.toStrings();
+            Collections.sort(actual);
+            assertEquals(expected, actual);
+        }
+        
+        File referenceJmod = toJmod(reference, temporaryFolder.newFile("reference.jmod"));
+        File newJmod = toJmod(newVersion, temporaryFolder.newFile("new.jmod"));
+        BasicReporter reporter = new BasicReporter();
+        new BCChecker(referenceJmod, newJmod).checkBacwardCompatibility(reporter, allRules());
+        List<String> actual = reporter.toStrings();
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+        
+        BCChecker checker = new BCChecker(referenceJmod, referenceJmod);
+        checker.setSkipIdenticalClasses(true);
+        checker.checkBacwardCompatibility(new BasicReporter(), allRules());
+        assertEquals(load(reference).size(), checker.getIdenticalClassCount());
+    }
+
+    @Test
+    public void testPlatformJmod() throws IOException {
+        File jmod = findJavaBaseJmod();
+        Assume.assumeTrue(jmod != null);
+        checkPlatformClasses(new JmodClassBytesSource(jmod));
+    }
+
+    @Test
+    public void testPlatformJrt() throws IOException {
+        Assume.assumeTrue(!System.getProperty("java.specification.version").startsWith("1."));
+        checkPlatformClasses(new JrtClassBytesSource("java.base"));
+    }
+
+    /**
+     * Checks the classes of java.base, compiled for the running platform, against themselves.
+     */
+    private void checkPlatformClasses(ClassBytesSource source) throws IOException {
+        // the thousands of classes dumped and reported would flood the test output.
+        Logger logger = Logger.getLogger(ClassDumper.class.getName());
+        java.util.logging.Level level = logger.getLevel();
+        logger.setLevel(java.util.logging.Level.INFO);
+        try {
+            PackedApiSnapshot snapshot = PackedApiSnapshot.build(source, ACCEPT_ALL);
+            assertTrue(snapshot.indexOf("java/lang/Object") >= 0);
+            assertTrue(snapshot.indexOf("java/lang/Record") >= 0 || snapshot.indexOf("java/lang/Module") >= 0);
+            
+            BCChecker checker = new BCChecker(source, source);
+            BasicReporter reporter = new BasicReporter();
+            reporter.quiet = true;
+            checker.checkBacwardCompatibility(reporter, allRules());
+            assertEquals(Collections.emptyList(), errors(reporter));
+        } finally {
+            logger.setLevel(level);
+        }
+    }
+
+    /**
+     * @return the java.base jmod given by the japi-checker.jmod property, or of the running JDK, or null.
+     */
+    private static File findJavaBaseJmod() {
+        String path = System.getProperty("japi-checker.jmod");
+        File jmod = path != null ? new File(path) : new File(System.getProperty("java.home"), "jmods/java.base.jmod");
+        return jmod.isFile() ? jmod : null;
+    }
+
+    private static final ClassBytesSource.Filter ACCEPT_ALL = new ClassBytesSource.Filter() {
+        public boolean accept(String path) {
+            return true;
+        }
+
+        public boolean enterDirectory(String path) {
+            return true;
+        }
+
+        public boolean enterArchive(String path) {
+            return true;
+        }
+    };
+
+    private static Map<String, byte[]> load(File jar) throws IOException {
+        Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+        ZipFile zip = new ZipFile(jar);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.getName().endsWith(".class")) {
+                    classes.put(entry.getName(), readFully(zip.getInputStream(entry)));
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        return classes;
+    }
+
+    /**
+     * Writes the content of the jar as a jmod: a 4 bytes header followed
+     * by a zip holding the classes under 'classes/'.
+     */
+    private static File toJmod(File jar, File jmod) throws IOException {
+        FileOutputStream os = new FileOutputStream(jmod);
+        try {
+            os.write(new byte[] {'J', 'M', 1, 0});
+            ZipOutputStream zos = new ZipOutputStream(os);
+            for (Map.Entry<String, byte[]> entry : load(jar).entrySet()) {
+                zos.putNextEntry(new ZipEntry("classes/" + entry.getKey()));
+                zos.write(entry.getValue());
+                zos.closeEntry();
+            }
+            zos.finish();
+        } finally {
+            os.close();
+        }
+        return jmod;
+    }
+
+    @Test
+    public void testMinimumVisibility() throws IOException {
+        BCChecker checker = new BCChecker(reference, newVersion);
+        checker.setMinimumVisibility(Scope.PUBLIC);
+        checker.addInclude("**/InnerClassRemoved*.class");
+        BasicReporter reporter = new BasicReporter();
+        checker.checkBacwardCompatibility(reporter, null);
+        assertEquals(4, reporter.count(Level.ERROR));
+    }
+
+    @Test
+    public void testMinimumVisibilityKeepsNarrowedClasses() throws IOException {
+        Map<String, byte[]> referenceClasses = new HashMap<String, byte[]>();
+        referenceClasses.put("foo/Narrowed.class", generateWithAccess("foo/Narrowed", Opcodes.ACC_PUBLIC));
+        Map<String, byte[]> newClasses = new HashMap<String, byte[]>();
+        newClasses.put("foo/Narrowed.class", generateWithAccess("foo/Narrowed", 0));
+        BCChecker checker = new BCChecker(new MemoryClassBytesSource(referenceClasses), new MemoryClassBytesSource(newClasses));
+        checker.setMinimumVisibility(Scope.PUBLIC);
+        BasicReporter reporter = new BasicReporter();
+        checker.checkBacwardCompatibility(reporter, allRules());
+        // the class is reported as narrowed, not as removed.
+        List<String> errors = errors(reporter);
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0), errors.get(0).contains("The visibility of the foo/Narrowed class has been changed"));
+    }
+
+    private static byte[] generateWithAccess(String name, int access) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_6, access, name, null, "java/lang/Object", null);
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    @Test
+    public void testDirectorySourceOrder() throws IOException {
+        File root = temporaryFolder.newFolder("ordered");
+        for (String path : new String[] {"foo/B.class", "foo/A.class", "bar/C.class", "Z.class", "a/D.class"}) {
+            File file = new File(root, path);
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), new byte[0]);
+        }
+        final List<String> paths = new ArrayList<String>();
+        new DirectoryClassBytesSource(root).read(ACCEPT_ALL, new ClassBytesSource.Handler() {
+            public void handle(String path, ByteBuffer content) {
+                paths.add(path);
+            }
+        });
+        // each directory listing is sorted by name, whatever the file system order.
+        assertEquals(Arrays.asList("Z.class", "a/D.class", "bar/C.class", "foo/A.class", "foo/B.class"), paths);
+        
+        // classes held in memory are read by path, whatever the order of the map.
+        Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+        for (String path : new String[] {"foo/B.class", "foo/A.class", "bar/C.class", "Z.class", "a/D.class"}) {
+            classes.put(path, new byte[0]);
+        }
+        paths.clear();
+        new MemoryClassBytesSource(classes).read(ACCEPT_ALL, new ClassBytesSource.Handler() {
+            public void handle(String path, ByteBuffer content) {
+                paths.add(path);
+            }
+        });
+        assertEquals(Arrays.asList("Z.class", "a/D.class", "bar/C.class", "foo/A.class", "foo/B.class"), paths);
+    }
+
+    @Test
+    public void testClassHeaderReader() throws IOException {
+        MappedJarReader reader = new MappedJarReader(reference);
+        try {
+            for (MappedJarReader.Entry entry : reader.getEntries()) {
+                if (entry.getName().endsWith(".class")) {
+                    byte[] bytes = Arrays.copyOf(reader.read(entry), (int)entry.getSize());
+                    assertEquals(entry.getName(), new ClassReader(bytes).getAccess(), ClassHeaderReader.readAccess(bytes, 0, bytes.length));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testSymbolTable() {
+        SymbolTable symbols = new SymbolTable();
+        assertEquals(SymbolTable.NO_SYMBOL, symbols.intern(null));
+        assertEquals(null, symbols.get(SymbolTable.NO_SYMBOL));
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i, symbols.intern("com/foo/Class" + i));
+        }
+        for (int i = 0; i < 5000; i++) {
+            String symbol = "com/foo/Class" + i;
+            assertEquals(i, symbols.intern(new String(symbol)));
+            assertEquals(symbol, symbols.get(i));
+            assertTrue(symbols.get(i) == symbols.get(symbols.intern(symbol)));
+        }
+        assertEquals(5000, symbols.size());
+        
+        // items of different tables are still compared by their symbols.
+        ClassData clazz = new ClassData(symbols, null, 0, "com/foo/Class1", null, "java/lang/Object", new String[0], 0);
+        ClassData other = new ClassData(null, 0, "com/foo/Class1", null, "java/lang/Object", new String[0], 0);
+        assertTrue(clazz.isSame(other));
+        assertEquals(1, clazz.getNameId());
+        MethodData method = new MethodData(clazz, 0, "run", "()V", null, new String[] {"java/io/IOException", "java/lang/Exception"});
+        MethodData otherMethod = new MethodData(other, 0, "run", "()V", null, new String[] {"java/lang/Exception"});
+        assertTrue(method.isSame(otherMethod));
+        assertEquals(Arrays.asList("java/io/IOException"), method.getExceptionsNotDeclaredBy(otherMethod));
+        assertEquals(0, otherMethod.getExceptionsNotDeclaredBy(method).size());
+    }
+
+    @Test
+    public void testImmutableJavaItem() {
+        for (Class<?> type : new Class<?>[] {JavaItem.class, ClassData.class, FieldData.class, MethodData.class, InnerClassData.class}) {
+            for (Field field : type.getDeclaredFields()) {
+                if (!field.getName().equals("line")) {
+                    assertTrue(type.getSimpleName() + "." + field.getName() + " should be final", Modifier.isFinal(field.getModifiers()));
+                }
+            }
+        }
+        
+        int access = Opcodes.ACC_PUBLIC | Opcodes.ACC_SYNTHETIC | Opcodes.ACC_DEPRECATED;
+        ClassData clazz = new ClassData(null, access, "com/foo/Bar", null, "java/lang/Object", new String[0], 0);
+        assertEquals(access, clazz.getAccess());
+        assertEquals(Scope.PUBLIC, clazz.getVisibility());
+        ClassData newClazz = new ClassData(null, Opcodes.ACC_PROTECTED | Opcodes.ACC_FINAL | Opcodes.ACC_SYNTHETIC, "com/foo/Bar", null, "java/lang/Object", new String[0], 0);
+        assertTrue(newClazz.isFinal());
+        assertEquals(Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED | Opcodes.ACC_FINAL | Opcodes.ACC_DEPRECATED, clazz.getChangedAccess(newClazz));
+        
+        // a frozen class cannot get new members.
+        assertTrue(clazz == clazz.freeze());
+        assertTrue(clazz.isFrozen());
+        try {
+            clazz.add(new MethodData(clazz, Opcodes.ACC_PUBLIC, "run", "()V", null, null));
+            fail("A frozen class must not be modified.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        ClassDumper dumper = new ClassDumper();
+        new ClassReader(generate("foo/A", false, false, new String[] {"a"}, null)).accept(dumper, 0);
+        assertTrue(dumper.getClasses().iterator().next().isFrozen());
+    }
+
+    @Test
+    public void testClassIndex() throws IOException {
+        ClassDumper dumper = new ClassDumper();
+        for (byte[] bytes : load(reference).values()) {
+            new ClassReader(bytes).accept(dumper, 0);
+        }
+        Map<String, ClassData> index = dumper.getClassIndex();
+        assertEquals(dumper.getClasses().size(), index.size());
+        for (ClassData clazz : dumper.getClasses()) {
+            assertTrue(clazz == index.get(clazz.getName()));
+        }
+        try {
+            index.clear();
+            fail("The class index must be read-only.");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMemberIndexes() {
+        ClassData clazz = new ClassData(null, Opcodes.ACC_PUBLIC, "foo/Bar", null, "java/lang/Object", new String[0], Opcodes.V1_6);
+        clazz.add(new MethodData(clazz, Opcodes.ACC_PUBLIC, "run", "()V", null, null));
+        clazz.add(new FieldData(clazz, Opcodes.ACC_PUBLIC, "count", "I", null, null));
+        clazz.add(new InnerClassData(clazz, Opcodes.ACC_PUBLIC, "foo/Bar$Baz", "foo/Bar", "Baz"));
+        assertEquals("run", clazz.findMethod("run", "()V").getName());
+        assertEquals(null, clazz.findMethod("run", "(I)V"));
+        assertEquals("I", clazz.findField("count").getDescriptor());
+        assertEquals(null, clazz.findField("size"));
+        assertEquals("Baz", clazz.findInnerClass("foo/Bar$Baz").getInnerName());
+        
+        // the indexes follow the members added after a lookup.
+        clazz.add(new MethodData(clazz, Opcodes.ACC_PUBLIC, "run", "(I)V", null, null));
+        assertEquals("(I)V", clazz.findMethod("run", "(I)V").getDescriptor());
+        assertEquals(2, clazz.getMethods().size());
+    }
+
+    @Test
+    public void testDiffEngine() {
+        ClassData kept = new ClassData(null, Opcodes.ACC_PUBLIC, "foo/Kept", null, "java/lang/Object", new String[0], Opcodes.V1_6);
+        kept.add(new MethodData(kept, Opcodes.ACC_PUBLIC, "run", "()V", null, null));
+        kept.add(new MethodData(kept, Opcodes.ACC_PUBLIC, "run", "(I)V", null, null));
+        kept.add(new FieldData(kept, Opcodes.ACC_PUBLIC, "count", "I", null, null));
+        ClassData removed = new ClassData(null, Opcodes.ACC_PUBLIC, "foo/Removed", null, "java/lang/Object", new String[0], Opcodes.V1_6);
+        ClassData newKept = new ClassData(null, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, "foo/Kept", null, "java/lang/Object", new String[0], Opcodes.V1_6);
+        newKept.add(new MethodData(newKept, Opcodes.ACC_PUBLIC, "stop", "()V", null, null));
+        newKept.add(new MethodData(newKept, Opcodes.ACC_PUBLIC, "run", "(I)V", null, null));
+        newKept.add(new FieldData(newKept, Opcodes.ACC_PUBLIC, "count", "J", null, null));
+        ClassData added = new ClassData(null, Opcodes.ACC_PUBLIC, "foo/Added", null, "java/lang/Object", new String[0], Opcodes.V1_6);
+        
+        final List<String> events = new ArrayList<String>();
+        new DiffEngine().diff(Arrays.asList(removed, kept), Arrays.asList(newKept, added), new DiffListener() {
+            public void classAdded(ClassData newClass) {
+                events.add("+" + newClass.getName());
+            }
+            public void classRemoved(ClassData referenceClass) {
+                events.add("-" + referenceClass.getName());
+            }
+            public void classChanged(ClassData referenceClass, ClassData newClass) {
+                events.add("~" + newClass.getName());
+            }
+            public void memberAdded(ClassData referenceClass, JavaItem newMember) {
+                events.add("  +" + newMember.getName() + ((MethodData)newMember).getDescriptor());
+            }
+            public void memberRemoved(JavaItem referenceMember, ClassData newClass) {
+                events.add("  -" + referenceMember.getName() + ((MethodData)referenceMember).getDescriptor());
+            }
+            public void memberChanged(JavaItem referenceMember, JavaItem newMember) {
+                events.add("  ~" + newMember.getName());
+            }
+        });
+        assertEquals(Arrays.asList("+foo/Added", "~foo/Kept", "  ~count", "  -run()V", "  ~run", "  +stop()V", "-foo/Removed"), events);
+        
+        BasicReporter reporter = new BasicReporter();
+        new DiffEngine().diff(Arrays.asList(removed, kept), Arrays.asList(newKept, added), new RuleDiffListener(reporter, allRules()));
+        List<String> errors = errors(reporter);
+        Collections.sort(errors);
+        assertEquals(Arrays.asList("ERROR: foo/null: Could not find method run in newer version.",
+                "ERROR: foo/null: Public class foo/Removed has been removed.",
+                "ERROR: foo/null: The class foo/Kept has been made final, this breaks inheritance.",
+                "ERROR: foo/null: The field count has been modified from I to J"), errors);
+        
+        // as with ClassData.findField, fields sharing a name are paired with the first new one.
+        ClassData obfuscated = new ClassData(null, Opcodes.ACC_PUBLIC, "foo/Obfuscated", null, "java/lang/Object", new String[0], Opcodes.V1_6);
+        obfuscated.add(new FieldData(obfuscated, Opcodes.ACC_PUBLIC, "a", "I", null, null));
+        obfuscated.add(new FieldData(obfuscated, Opcodes.ACC_PUBLIC, "a", "J", null, null));
+        ClassData newObfuscated = new ClassData(null, Opcodes.ACC_PUBLIC, "foo/Obfuscated", null, "java/lang/Object", new String[0], Opcodes.V1_6);
+        newObfuscated.add(new FieldData(newObfuscated, Opcodes.ACC_PUBLIC, "a", "I", null, null));
+        reporter = new BasicReporter();
+        new DiffEngine().diff(obfuscated, newObfuscated, new RuleDiffListener(reporter, allRules()));
+        assertEquals(Arrays.asList("ERROR: foo/null: The field a has been modified from J to I"), errors(reporter));
+    }
+
+    /**
+     * Checks the bytes allocated to parse a class, model included, stay within
+     * a budget, so the logging or copies removed from the dumpers do not come back.
+     */
+    @Test
+    public void testParsingAllocationBudget() throws IOException {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)threadBean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        
+        List<byte[]> classes = new ArrayList<byte[]>(load(newVersion).values());
+        SymbolTable symbols = new SymbolTable();
+        // warming up, so the code is compiled and the symbols are known.
+        for (int i = 0; i < 500; i++) {
+            parse(classes, symbols);
+        }
+        int iterations = 200;
+        long threadId = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            parse(classes, symbols);
+        }
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+        long perClass = allocated / (iterations * classes.size());
+        assertTrue(perClass + " bytes allocated per class", perClass < PARSING_BUDGET);
+    }
+
+    private static void parse(List<byte[]> classes, SymbolTable symbols) {
+        ClassDumper dumper = new ClassDumper(EnumSet.allOf(Facet.class), symbols);
+        for (byte[] bytes : classes) {
+            new ClassReader(bytes).accept(dumper, dumper.getParsingOptions());
+        }
+    }
+
+    @Test
+    public void testMappedJarReaderMatchesZipFile() throws IOException {
+        ZipFile zip = new ZipFile(reference);
+        MappedJarReader reader = new MappedJarReader(reference);
+        try {
+            assertEquals(zip.size(), reader.getEntries().size());
+            for (MappedJarReader.Entry entry : reader.getEntries()) {
+                ZipEntry zipEntry = zip.getEntry(entry.getName());
+                assertEquals(zipEntry.getSize(), entry.getSize());
+                assertEquals(zipEntry.getCrc(), entry.getCrc());
+                byte[] expected = readFully(zip.getInputStream(zipEntry));
+                byte[] actual = reader.read(entry);
+                assertTrue(entry.getName(), Arrays.equals(expected, Arrays.copyOf(actual, (int)entry.getSize())));
+            }
+        } finally {
+            reader.close();
+            zip.close();
+        }
+    }
+
+    @Test
+    public void testMappedJarReaderRejectsTruncatedEntry() throws IOException {
+        byte[] jar = Files.readAllBytes(reference.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(jar).order(ByteOrder.LITTLE_ENDIAN);
+        // makes the first entry of the central directory larger than the archive.
+        int pos = jar.length - 22;
+        while (buffer.getInt(pos) != 0x06054b50) {
+            pos--;
+        }
+        int central = buffer.getInt(pos + 16);
+        buffer.putInt(central + 20, jar.length);
+        buffer.putInt(central + 24, jar.length);
+        File corrupted = temporaryFolder.newFile("corrupted.jar");
+        Files.write(corrupted.toPath(), jar);
+        MappedJarReader reader = new MappedJarReader(corrupted);
+        try {
+            reader.read(reader.getEntries().get(0));
+            fail("a truncated entry must be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Truncated entry"));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testMappedJarReaderRejectsInvalidEntrySize() throws IOException {
+        byte[] jar = Files.readAllBytes(reference.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(jar).order(ByteOrder.LITTLE_ENDIAN);
+        int pos = jar.length - 22;
+        while (buffer.getInt(pos) != 0x06054b50) {
+            pos--;
+        }
+        int central = buffer.getInt(pos + 16);
+        // an uncompressed size of 2^31, which does not fit an int.
+        buffer.putInt(central + 24, 0x80000000);
+        File corrupted = temporaryFolder.newFile("oversized.jar");
+        Files.write(corrupted.toPath(), jar);
+        MappedJarReader reader = new MappedJarReader(corrupted);
+        try {
+            reader.read(reader.getEntries().get(0));
+            fail("an entry larger than 2GB must be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid entry size"));
+        } finally {
+            reader.close();
+        }
+        
+        // a stored entry whose sizes differ.
+        buffer.putShort(central + 10, (short)ZipEntry.STORED);
+        buffer.putInt(central + 24, buffer.getInt(central + 20) + 1);
+        Files.write(corrupted.toPath(), jar);
+        reader = new MappedJarReader(corrupted);
+        try {
+            reader.read(reader.getEntries().get(0));
+            fail("a stored entry must have the same sizes");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid entry size"));
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        byte buffer[] = new byte[2048];
+        int count = 0;
+        while ((count = is.read(buffer)) != -1) {
+            os.write(buffer, 0, count);
+        }
+        is.close();
+        return os.toByteArray();
+    }
+
+    private static List<Rule> allRules() {
+        List<Rule> rules = new ArrayList<Rule>();
+        rules.add(new AllRules());
+        return rules;
+    }
+
     public BasicReporter check(Class<? extends Rule> clazz, String ... includes) throws InstantiationException, IllegalAccessException, IOException {
         BCChecker checker = new BCChecker(reference, newVersion);
         BasicReporter reporter = new BasicReporter();
@@ -269,10 +1582,13 @@ public class TestBCChecker {
     
     public static class BasicReporter implements Reporter {
         List<Report> messages = new ArrayList<Report>();
+        boolean quiet;
         
         @Override
         public void report(Report report) {
-            System.out.println(report.level.toString() + ": " + report.source + getLine(report) + ": " + report.message);
+            if (!quiet) {
+                System.out.println(report.level.toString() + ": " + report.source + getLine(report) + ": " + report.message);
+            }
             messages.add(report);
         }
         
@@ -287,6 +1603,14 @@ public class TestBCChecker {
             return messages;
         }
 
+        public List<String> toStrings() {
+            List<String> result = new ArrayList<String>();
+            for (Report message : messages) {
+                result.add(message.level + ": " + message.source + getLine(message) + ": " + message.message);
+            }
+            return result;
+        }
+
         public int count(Level level) {
             int count = 0;
             for (Report message : messages) {